@@ -0,0 +1,146 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * engine.java
+ * The engine classes are in the default package, which JMH benchmarks can not be in and a named package can not import.
+ * So the benchmarks reach them through method handles. The handles are static final and adapted to exact types,
+ * which lets the JIT inline them like normal calls, and nothing gets boxed on the way through.
+ */
+
+final class engine {
+	static final Class<?> GAME = load("ChessGame");
+	static final Class<?> AI = load("chessAI");
+	static final Class<?> LIMITS = load("SearchLimits");
+
+	static final MethodHandle NEW_GAME = constructor(GAME, MethodType.methodType(Object.class, String.class), String.class);
+	static final MethodHandle NEW_AI = constructor(AI, MethodType.methodType(Object.class, boolean.class, int.class, int.class), boolean.class, int.class, int.class);
+	static final MethodHandle GET_BOARD = method(GAME, "getBoard", MethodType.methodType(int[].class, Object.class));
+	static final MethodHandle WHITES_MOVE = method(GAME, "whitesMove", MethodType.methodType(boolean.class, Object.class));
+	static final MethodHandle WHITE_MOVES = method(GAME, "whiteMoves", MethodType.methodType(Set.class, Object.class));
+	static final MethodHandle BLACK_MOVES = method(GAME, "blackMoves", MethodType.methodType(Set.class, Object.class));
+	static final MethodHandle MOVE = method(GAME, "move", MethodType.methodType(boolean.class, Object.class, String.class), String.class);
+	static final MethodHandle UNMAKE_MOVE = method(GAME, "unmakeMove", MethodType.methodType(void.class, Object.class));
+
+	static final MethodHandle EVALUATE_BOARD = method(AI, "evaluateBoard", MethodType.methodType(double.class, Object.class, Object.class, int.class), GAME, int.class);
+	static final MethodHandle VALUE_OF_PIECES = method(AI, "valueOfPieces", MethodType.methodType(double.class, Object.class), GAME);
+	static final MethodHandle PAWN_STRUCTURE = method(AI, "pawnStructure", MethodType.methodType(double.class, Object.class, int.class), GAME, int.class);
+	static final MethodHandle PAWNS = method(AI, "pawns", MethodType.methodType(double.class, Object.class, Object.class, int.class), GAME, int.class);
+	static final MethodHandle KNIGHT_VALUE = method(AI, "knightValue", MethodType.methodType(double.class, Object.class), GAME);
+	static final MethodHandle BISHOP_VALUE = method(AI, "bishopValue", MethodType.methodType(double.class, Object.class), GAME);
+	static final MethodHandle ROOK_VALUE = method(AI, "rookValue", MethodType.methodType(double.class, Object.class), GAME);
+	static final MethodHandle QUEEN_VALUE = method(AI, "queenValue", MethodType.methodType(double.class, Object.class), GAME);
+	static final MethodHandle KING_VALUE = method(AI, "kingValue", MethodType.methodType(double.class, Object.class), GAME);
+
+	static final MethodHandle GET_BEST_MOVE = method(AI, "getBestMove", MethodType.methodType(String.class, Object.class, Object.class, Object.class), GAME, LIMITS);
+	static final MethodHandle DEPTH_LIMIT = method(LIMITS, "depth", MethodType.methodType(Object.class, int.class), int.class);
+	static final MethodHandle SET_NUMBER_OF_MOVES = setter(AI, "numberOfMoves", MethodType.methodType(void.class, Object.class, int.class));
+	static final MethodHandle GET_TABLE = getter(AI, "table", MethodType.methodType(Object.class, Object.class));
+	static final MethodHandle CLEAR_TABLE = method(load("transpositionTable"), "clear", MethodType.methodType(void.class, Object.class));
+	static final MethodHandle CLEAR_CACHES = method(AI, "clearCaches", MethodType.methodType(void.class, Object.class));
+
+	//The checked in positions, one FEN per line
+	static final List<String> POSITIONS = positions();
+
+	static Object game(int position) throws Throwable {
+		return (Object)NEW_GAME.invokeExact(POSITIONS.get(position));
+	}
+
+	static Object ai(boolean white, int hashMegabytes) throws Throwable {
+		return ai(white, hashMegabytes, 1);
+	}
+
+	//Without a book or endgame tables, which a chessAI only uses once it is given them, so every timed call is a real search
+	static Object ai(boolean white, int hashMegabytes, int threads) throws Throwable {
+		return (Object)NEW_AI.invokeExact(white, hashMegabytes, threads);
+	}
+
+	//Puts the AI back to how it was before its first search, so every timed search starts cold
+	//with an empty transposition table and no evaluations or pawn structures kept from the last one
+	static void reset(Object ai) throws Throwable {
+		SET_NUMBER_OF_MOVES.invokeExact(ai, 0);
+		CLEAR_TABLE.invokeExact((Object)GET_TABLE.invokeExact(ai));
+		CLEAR_CACHES.invokeExact(ai);
+	}
+
+	//Any legal move for the side to move, in chess notation
+	@SuppressWarnings("unchecked")
+	static String anyMove(Object game) throws Throwable {
+		Set<String> moves = (boolean)WHITES_MOVE.invokeExact(game) ? (Set<String>)WHITE_MOVES.invokeExact(game) : (Set<String>)BLACK_MOVES.invokeExact(game);
+		return moves.iterator().next();
+	}
+
+	private static Class<?> load(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle constructor(Class<?> owner, MethodType type, Class<?>... parameters) {
+		try {
+			Constructor<?> c = owner.getDeclaredConstructor(parameters);
+			c.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(c).asType(type);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle method(Class<?> owner, String name, MethodType type, Class<?>... parameters) {
+		try {
+			Method m = owner.getDeclaredMethod(name, parameters);
+			m.setAccessible(true);
+			return MethodHandles.lookup().unreflect(m).asType(type);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle getter(Class<?> owner, String name, MethodType type) {
+		try {
+			Field f = owner.getDeclaredField(name);
+			f.setAccessible(true);
+			return MethodHandles.lookup().unreflectGetter(f).asType(type);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle setter(Class<?> owner, String name, MethodType type) {
+		try {
+			Field f = owner.getDeclaredField(name);
+			f.setAccessible(true);
+			return MethodHandles.lookup().unreflectSetter(f).asType(type);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static List<String> positions() {
+		List<String> fens = new ArrayList<String>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(engine.class.getResourceAsStream("/positions.fen"), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(!line.isBlank()) fens.add(line.trim());
+			}
+		} catch (IOException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+		return fens;
+	}
+}
@@ -0,0 +1,90 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * evaluationBenchmark.java
+ * chessAI.evaluateBoard and every term it adds up, on each of the checked in positions.
+ * The same position is scored every call, so evaluateBoard always finds its pawn structure in the pawn hash.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class evaluationBenchmark {
+	static final int MOVE_COUNT = 20; //Middle game, so pawnStructure takes its chain counting path
+
+	@Param({"0", "1", "2", "3", "4", "5"})
+	int position;
+
+	Object ai;
+	Object game;
+
+	@Setup
+	public void setup() throws Throwable {
+		game = engine.game(position);
+		ai = engine.ai(true, 1);
+	}
+
+	@Benchmark
+	public double evaluateBoard() throws Throwable {
+		return (double)engine.EVALUATE_BOARD.invokeExact(ai, game, MOVE_COUNT);
+	}
+
+	@Benchmark
+	public double valueOfPieces() throws Throwable {
+		return (double)engine.VALUE_OF_PIECES.invokeExact(game);
+	}
+
+	//The pawn terms worked out every time, without the pawn hash
+	@Benchmark
+	public double pawnStructure() throws Throwable {
+		return (double)engine.PAWN_STRUCTURE.invokeExact(game, MOVE_COUNT);
+	}
+
+	//The pawn terms through the pawn hash, which always has this position after the first call like evaluateBoard does
+	@Benchmark
+	public double pawns() throws Throwable {
+		return (double)engine.PAWNS.invokeExact(ai, game, MOVE_COUNT);
+	}
+
+	@Benchmark
+	public double knightValue() throws Throwable {
+		return (double)engine.KNIGHT_VALUE.invokeExact(game);
+	}
+
+	@Benchmark
+	public double bishopValue() throws Throwable {
+		return (double)engine.BISHOP_VALUE.invokeExact(game);
+	}
+
+	@Benchmark
+	public double rookValue() throws Throwable {
+		return (double)engine.ROOK_VALUE.invokeExact(game);
+	}
+
+	@Benchmark
+	public double queenValue() throws Throwable {
+		return (double)engine.QUEEN_VALUE.invokeExact(game);
+	}
+
+	@Benchmark
+	public double kingValue() throws Throwable {
+		return (double)engine.KING_VALUE.invokeExact(game);
+	}
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * gameBenchmark.java
+ * The ChessGame calls the AI and the server make, ChessGame.getBoard() and ChessGame.move(String).
+ * The move benchmark takes the move back each time so every call starts from the same position.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class gameBenchmark {
+	@Param({"0", "1", "2", "3", "4", "5"})
+	int position;
+
+	Object game;
+	String move;
+
+	@Setup
+	public void setup() throws Throwable {
+		game = engine.game(position);
+		move = engine.anyMove(game);
+	}
+
+	@Benchmark
+	public int[] getBoard() throws Throwable {
+		return (int[])engine.GET_BOARD.invokeExact(game);
+	}
+
+	@Benchmark
+	public boolean move() throws Throwable {
+		boolean legal = (boolean)engine.MOVE.invokeExact(game, move);
+		engine.UNMAKE_MOVE.invokeExact(game);
+		return legal;
+	}
+}
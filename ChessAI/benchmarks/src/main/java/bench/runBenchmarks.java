@@ -0,0 +1,19 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * runBenchmarks.java
+ * Main class of benchmarks.jar. Takes the normal JMH arguments and always adds the gc profiler,
+ * so the allocation rate (gc.alloc.rate.norm) is reported next to ops/s for every benchmark.
+ * java -jar benchmarks.jar evaluationBenchmark runs just the evaluation benchmarks.
+ */
+
+public class runBenchmarks {
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build()).run();
+	}
+}
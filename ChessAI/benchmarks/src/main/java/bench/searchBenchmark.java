@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * searchBenchmark.java
+ * A fixed depth getBestMove on each of the checked in positions.
+ * The AI is reset before every call so neither the transposition table nor the evaluation cache from the last call can help.
+ * threads is the number of Lazy SMP search threads the AI is made with.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class searchBenchmark {
+	@Param({"0", "1", "2", "3", "4", "5"})
+	int position;
+
+	@Param({"4"})
+	int depth;
+
+	@Param({"1"})
+	int threads;
+
+	Object ai;
+	Object game;
+	Object limits;
+
+	@Setup
+	public void setup() throws Throwable {
+		game = engine.game(position);
+		ai = engine.ai(true, 16, threads);
+		limits = (Object)engine.DEPTH_LIMIT.invokeExact(depth);
+	}
+
+	@Setup(Level.Invocation)
+	public void reset() throws Throwable {
+		engine.reset(ai);
+	}
+
+	@Benchmark
+	public String getBestMove() throws Throwable {
+		return (String)engine.GET_BEST_MOVE.invokeExact(ai, game, limits);
+	}
+}
@@ -1,6 +1,6 @@
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Random;
 import java.util.Set;
 
 /*
@@ -15,1063 +15,1078 @@ import java.util.Set;
  * O-O -> King's side castle
  * O-O-O -> Queen's side castle
  * BxD5 -> bishop capturing the piece on D5
+ * The board is stored as bitboards, one 64 bit mask per piece where bit 0 is a1 and bit 63 is h8.
+ * Inside the engine moves are packed ints, the notation is only used for the moves going in and out of the game.
  */
 
 //The whole of the chess engine
 public class ChessGame {
 	chessBoard cb;
-	
+
+	//Piece types. The piece codes used on the board are the same as getBoard(), white is type*2-1 and black is type*2
+	static final int PAWN = 1;
+	static final int KNIGHT = 2;
+	static final int BISHOP = 3;
+	static final int ROOK = 4;
+	static final int QUEEN = 5;
+	static final int KING = 6;
+
+	//Moves are packed into 16 bits as from | to << 6 | promotion << 12 | CAPTURE
+	static final int CAPTURE = 1 << 15;
+
+	//Castling rights, stored as bits
+	static final int WHITE_KING_SIDE = 1;
+	static final int WHITE_QUEEN_SIDE = 2;
+	static final int BLACK_KING_SIDE = 4;
+	static final int BLACK_QUEEN_SIDE = 8;
+
+	static final long FILE_A = 0x0101010101010101L;
+	static final long FILE_H = FILE_A << 7;
+	static final long RANK_3 = 0xFFL << 16;
+	static final long RANK_6 = 0xFFL << 40;
+	static final long RANK_1 = 0xFFL;
+	static final long RANK_8 = 0xFFL << 56;
+
+	static final long[] knightAttacks = new long[64];
+	static final long[] kingAttacks = new long[64];
+	static final long[][] pawnAttacks = new long[2][64]; //[0] is the squares a white pawn attacks and [1] is black
+	static final int[] castleMask = new int[64]; //Castling rights that survive a move touching the square
+
+	//Magic bitboards for the sliding pieces. The mask is the squares on the piece's rays that can block it, leaving out the edges.
+	//Multiplying the blockers by the square's magic number and shifting gives an index into that square's part of the table
+	static final long[] bishopMasks = new long[64];
+	static final long[] rookMasks = new long[64];
+	//Found once with a search over sparse random numbers, any number that gives no bad collisions would do
+	static final long[] bishopMagics = {
+		0x7820429001032180L, 0x028504208409040CL, 0x2110940042401000L, 0x06020A0A00100000L,
+		0x2244504000000400L, 0x0040882008204010L, 0x0000521044601000L, 0xD409402814104400L,
+		0x0000224811010C00L, 0x000C140808010233L, 0x0000040812004854L, 0x0802080A14200002L,
+		0x0000111040080000L, 0x1400011002103010L, 0x0004006404200800L, 0x0200008044300400L,
+		0x0110020620084102L, 0x005000040C580244L, 0x1410000800444108L, 0x1000880802004102L,
+		0x1044001084A00002L, 0x4010802808040241L, 0x4841000088011100L, 0x4B00840102481201L,
+		0x0011100008021000L, 0x0308200002428200L, 0x1004100081010020L, 0x000C04000800A088L,
+		0x0151080401004004L, 0x70090040A8080811L, 0x9321110084445002L, 0x0000488A3A008408L,
+		0x2810080424211540L, 0x2008088802844101L, 0x0004040200210208L, 0x0000020080980082L,
+		0x0040024200010108L, 0x002004808001080EL, 0x2001394300040400L, 0x080A038105002404L,
+		0x0214120840400412L, 0x10A4108424001004L, 0x0002101804080800L, 0x0C08001414000802L,
+		0x02000C9092000400L, 0x0C01900100402200L, 0x04200904211A0482L, 0x10380C8400800348L,
+		0x0000410868410000L, 0x008044420820B020L, 0x8000282908080000L, 0x8800050020A80D00L,
+		0x0024A0E002440200L, 0x0208081090208000L, 0x00C0102109050080L, 0x2004080081021440L,
+		0x1406010301301208L, 0x0100020084040251L, 0x00E102008C008801L, 0x0000000102104400L,
+		0x1101010109312400L, 0x28002220281041C4L, 0x200840042400C200L, 0x0220081000A02040L
+	};
+	static final long[] rookMagics = {
+		0x0080002080400012L, 0x0880200010804004L, 0x0880088010002000L, 0x1100090004201000L,
+		0x0280060400803800L, 0x0200020001080410L, 0x0280008002000100L, 0x1C80044029000180L,
+		0x3000800488244000L, 0x2082802000814000L, 0x0452004200201080L, 0x6520800800801000L,
+		0x00AA000410482201L, 0x0006001004080201L, 0x0011002200010024L, 0x0C10800100004080L,
+		0x2021A48004401080L, 0x1E10004000200041L, 0x4200820040201200L, 0xA0220A0040102200L,
+		0x0000828004004800L, 0x0004008004800200L, 0x2010040030022108L, 0x4800C20000440081L,
+		0x0000209080004000L, 0x0010004840002010L, 0x0800110100402004L, 0x0200080080801000L,
+		0x3004000480480080L, 0x4000020080040080L, 0x1002100400489506L, 0x490400A2000AC104L,
+		0x0280002000404000L, 0x0000422001401004L, 0x0000809001802004L, 0x6001800801801000L,
+		0x0004000800808004L, 0x0022800200800400L, 0x0009080204007001L, 0x0886800040800100L,
+		0x1420400890218001L, 0x0400400100810030L, 0x2010002804002000L, 0x0012042040120009L,
+		0x0504008008008004L, 0x0884204090080104L, 0x0084102221840008L, 0x0240006900820004L,
+		0x0850804201002200L, 0x0080802000400C80L, 0x0000450020021100L, 0x0A40080080100080L,
+		0x2C04000480080080L, 0x4604000200410040L, 0xAC20480102500400L, 0x0940009400410200L,
+		0x080101C820120082L, 0x1040010013A0C081L, 0x0040120920010041L, 0x4009220008D24032L,
+		0x0002002004C81102L, 0x00A2001048048122L, 0x0010081204895004L, 0x0042008444240502L
+	};
+	static final int[] bishopShifts = new int[64];
+	static final int[] rookShifts = new int[64];
+	static final int[] bishopOffsets = new int[64];
+	static final int[] rookOffsets = new int[64];
+	static final long[] bishopTable;
+	static final long[] rookTable;
+
+	//between is the squares strictly between two squares on the same rank, file or diagonal, and line is the whole line through both.
+	//Both are empty for squares that are not lined up
+	static final long[][] between = new long[64][64];
+	static final long[][] line = new long[64][64];
+
+	//Zobrist keys, the key of a position is all of the keys for what is on the board xored together
+	static final long[][] zobristPieces = new long[13][64];
+	static final long[] zobristCastling = new long[16];
+	static final long[] zobristEnPassant = new long[8];
+	static final long zobristSide;
+
+	static {
+		int[][] knightDir = {{2,1},{2,-1},{-2,1},{-2,-1},{1,2},{-1,2},{1,-2},{-1,-2}};
+		int[][] directions = {{1,0},{1,1},{1,-1},{-1,0},{-1,1},{-1,-1},{0,1},{0,-1}};
+		for(int sq = 0; sq < 64; sq++) {
+			int row = sq/8;
+			int col = sq%8;
+			for(int[] dir : knightDir) {
+				if(row+dir[0] >= 0 && row+dir[0] <= 7 && col+dir[1] >= 0 && col+dir[1] <= 7) knightAttacks[sq] |= 1L << ((row+dir[0])*8 + col+dir[1]);
+			}
+			for(int[] dir : directions) {
+				if(row+dir[0] >= 0 && row+dir[0] <= 7 && col+dir[1] >= 0 && col+dir[1] <= 7) kingAttacks[sq] |= 1L << ((row+dir[0])*8 + col+dir[1]);
+			}
+			for(int c = col-1; c <= col+1; c += 2) {
+				if(c < 0 || c > 7) continue;
+				if(row < 7) pawnAttacks[0][sq] |= 1L << ((row+1)*8 + c);
+				if(row > 0) pawnAttacks[1][sq] |= 1L << ((row-1)*8 + c);
+			}
+			castleMask[sq] = WHITE_KING_SIDE | WHITE_QUEEN_SIDE | BLACK_KING_SIDE | BLACK_QUEEN_SIDE;
+		}
+		castleMask[4] &= ~(WHITE_KING_SIDE | WHITE_QUEEN_SIDE);
+		castleMask[7] &= ~WHITE_KING_SIDE;
+		castleMask[0] &= ~WHITE_QUEEN_SIDE;
+		castleMask[60] &= ~(BLACK_KING_SIDE | BLACK_QUEEN_SIDE);
+		castleMask[63] &= ~BLACK_KING_SIDE;
+		castleMask[56] &= ~BLACK_QUEEN_SIDE;
+
+		Random r = new Random(20240419); //Fixed seed so the keys are the same every run
+		for(int code = 1; code < 13; code++) {
+			for(int sq = 0; sq < 64; sq++) zobristPieces[code][sq] = r.nextLong();
+		}
+		long[] rights = {r.nextLong(), r.nextLong(), r.nextLong(), r.nextLong()};
+		for(int c = 0; c < 16; c++) {
+			for(int bit = 0; bit < 4; bit++) {
+				if((c & (1 << bit)) != 0) zobristCastling[c] ^= rights[bit];
+			}
+		}
+		for(int file = 0; file < 8; file++) zobristEnPassant[file] = r.nextLong();
+		zobristSide = r.nextLong();
+
+		int bishopSize = 0;
+		int rookSize = 0;
+		for(int sq = 0; sq < 64; sq++) {
+			long edges = ((RANK_1 | RANK_8) & ~(0xFFL << (sq/8*8))) | ((FILE_A | FILE_H) & ~(FILE_A << (sq%8)));
+			bishopMasks[sq] = slideBishop(sq, 0) & ~edges;
+			rookMasks[sq] = slideRook(sq, 0) & ~edges;
+			bishopShifts[sq] = 64 - Long.bitCount(bishopMasks[sq]);
+			rookShifts[sq] = 64 - Long.bitCount(rookMasks[sq]);
+			bishopOffsets[sq] = bishopSize;
+			rookOffsets[sq] = rookSize;
+			bishopSize += 1 << Long.bitCount(bishopMasks[sq]);
+			rookSize += 1 << Long.bitCount(rookMasks[sq]);
+		}
+		bishopTable = new long[bishopSize];
+		rookTable = new long[rookSize];
+		for(int sq = 0; sq < 64; sq++) {
+			fillMagic(sq, bishopMasks[sq], bishopMagics[sq], true, bishopTable, bishopOffsets[sq]);
+			fillMagic(sq, rookMasks[sq], rookMagics[sq], false, rookTable, rookOffsets[sq]);
+		}
+		for(int a = 0; a < 64; a++) {
+			for(int b = 0; b < 64; b++) {
+				long aBit = 1L << a;
+				long bBit = 1L << b;
+				if(a == b) continue;
+				if((bishopAttacks(a, 0) & bBit) != 0) {
+					between[a][b] = bishopAttacks(a, bBit) & bishopAttacks(b, aBit);
+					line[a][b] = (bishopAttacks(a, 0) & bishopAttacks(b, 0)) | aBit | bBit;
+				}
+				else if((rookAttacks(a, 0) & bBit) != 0) {
+					between[a][b] = rookAttacks(a, bBit) & rookAttacks(b, aBit);
+					line[a][b] = (rookAttacks(a, 0) & rookAttacks(b, 0)) | aBit | bBit;
+				}
+			}
+		}
+	}
+
 	ChessGame(){
 		cb = new chessBoard();
 	}
-	
+
 	ChessGame(int[] board, boolean whitesMove){
 		cb = new chessBoard(board, whitesMove);
 	}
-	
-	
+
+	//Sets up the position from a FEN string like "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"
+	ChessGame(String fen){
+		cb = new chessBoard(fen);
+	}
+
+	//Copies the position so a search can make and unmake moves on it without touching the original game
+	ChessGame(ChessGame game){
+		cb = new chessBoard(game.cb);
+	}
+
+
 	public int[] getBoard() {
-		int[] a = new int[64];
-		for(int i = 0; i < 64; i++) {
-			piece p = cb.board[i/8][i%8];
-			if(p instanceof pawn) {
-				if(p.isWhite()) a[i] = 1;
-				else a[i] = 2;
-			}else if(p instanceof knight) {
-				if(p.isWhite()) a[i] = 3;
-				else a[i] = 4;
-			}else if(p instanceof bishop) {
-				if(p.isWhite()) a[i] = 5;
-				else a[i] = 6;
-			}else if(p instanceof rook) {
-				if(p.isWhite()) a[i] = 7;
-				else a[i] = 8;
-			}else if(p instanceof queen) {
-				if(p.isWhite()) a[i] = 9;
-				else a[i] = 10;
-			}else if(p instanceof king) {
-				if(p.isWhite()) a[i] = 11;
-				else a[i] = 12;
-			}
-		}
-		return a;
+		return cb.squares.clone();
 	}
-	
+
 	public boolean getGameOver() {
 		return cb.getGameOver();
 	}
-	
+
 	public boolean whitesMove() {
 		return cb.whiteMove;
 	}
-	
+
+	//The Zobrist key of the position, including the side to move, castling rights and en passant file
+	public long getKey() {
+		return cb.key;
+	}
+
+	//Keeps the network's accumulators up to date from now on, or stops if it is null
+	void useNnue(nnueNetwork network) {
+		cb.nnue = network;
+		cb.accumulator = network == null ? null : network.refresh(cb.squares);
+		cb.nnueInput = network == null ? null : new float[cb.accumulator.length];
+	}
+
+	//The network's score for the side to move, in centipawns. Only after useNnue
+	int nnueScore() {
+		return cb.nnue.evaluate(cb.accumulator, cb.whiteMove, cb.nnueInput);
+	}
+
+	//Zobrist key of just the pawns
+	long pawnKey() {
+		return cb.pawnKey;
+	}
+
 	public Set<String> whiteMoves(){
-		return cb.whiteMoves.keySet();
+		return cb.moves(true).keySet();
 	}
-	
+
 	public Set<String> blackMoves(){
-		return cb.blackMoves.keySet();
+		return cb.moves(false).keySet();
 	}
-	
+
+	//Makes the move in place so it can be taken back with unmakeMove
 	boolean move(String move) {
 		return cb.move(move);
 	}
-	
+
+	void makeMove(int move) {
+		cb.makeMove(move);
+	}
+
+	//Fills the list with the legal moves for the side to move and returns how many there are
+	int legalMoves(int[] list) {
+		return cb.generate(cb.whiteMove, list);
+	}
+
+	//Same as legalMoves but only the captures and promotions
+	int captures(int[] list) {
+		return cb.generateCaptures(cb.whiteMove, list);
+	}
+
+	//Writes a packed move for the side to move in chess notation
+	String moveToString(int move) {
+		int[] list = new int[256];
+		return cb.toNotation(move, list, cb.generate(cb.whiteMove, list));
+	}
+
+	//Takes back the last move made
+	void unmakeMove() {
+		cb.unmakeMove();
+	}
+
+	//Gives the move to the other side without moving. Never legal in a game, the search uses it to see if a position is good even after passing
+	void makeNullMove() {
+		cb.makeNullMove();
+	}
+
+	void unmakeNullMove() {
+		cb.unmakeNullMove();
+	}
+
+	//Whether the side has anything besides its king and pawns
+	boolean hasPieces(boolean white) {
+		return (cb.pieces[code(KNIGHT, white)] | cb.pieces[code(BISHOP, white)] | cb.pieces[code(ROOK, white)] | cb.pieces[code(QUEEN, white)]) != 0;
+	}
+
+	//The packed move for the notation, or 0 if it is not a legal move for the side to move
+	int moveCode(String move) {
+		Integer m = cb.moves(cb.whiteMove).get(move);
+		return m == null ? 0 : m;
+	}
+
 	public String toString() {
 		return cb.toString();
 	}
-	
+
 	public int inCheck() {
-		if(cb.blackInCheck) return 1;
-		if(cb.whiteInCheck ) return -1;
+		if(cb.inCheck(false)) return 1;
+		if(cb.inCheck(true)) return -1;
 		return 0;
 	}
-	
+
 	public int attackingValue() {
 		return cb.attackingValue();
 	}
-	
-	//Pretty abstract class for what a piece does
-	abstract class piece{
-		protected boolean color;
-		protected int row;
-		protected int col;
-		protected boolean pinned;
-		protected boolean defended;
-		piece(boolean color, int row, int col){
-			this.color = color;
-			this.row = row;
-			this.col = col;
-		}
-		abstract int getValue();
-		abstract ArrayList<String> legalMoves(piece[][] board);
-		void setColor(boolean white) { color = white; }
-		boolean isWhite() { return color; }
-		void setPinned(boolean pinned) {
-			this.pinned = pinned;
-		}
-		void setDefended(boolean defended) {
-			this.defended = defended;
-		}
+
+	//Running totals for the evaluation terms that only depend on where the pieces are. White counts up and black counts down
+	public int material() {
+		return cb.material;
 	}
-	//Handles all actions that a pawn may do.
-	class pawn extends piece{
-		boolean enPassant = false;
-		boolean left = false;
-		pawn(boolean color, int row, int col) {
-			super(color, row, col);
-		}
-		@Override
-		int getValue() { return 1; }
-		@Override
-		public ArrayList<String> legalMoves(piece[][] board) {
-	        ArrayList<String> moves = new ArrayList<>();
-	        int direction = color ? 1 : -1;
-	        int startRow = color ? 1 : 6;
-	        int promotionRow = color ? 7 : 0;
-	        
-	        // Normal move forward
-	        if (isValidPosition(row + direction, col) && board[row + direction][col] == null) {
-	            addMove(moves, col, row + direction, false, "");
-	            if (row == startRow && board[row + (2 * direction)][col] == null) {
-	                addMove(moves, col, row + (2 * direction), false, "");
-	            }
-	        }
-
-	        // Capture moves
-	        int[] captureCols = {col - 1, col + 1};
-	        for (int captureCol : captureCols) {
-	            if (isValidPosition(row + direction, captureCol) && board[row + direction][captureCol] != null && board[row + direction][captureCol].isWhite() != color) {
-	                String promotionSuffix = ((row + direction) == promotionRow)? "QNRB" : "";
-	                addMove(moves, captureCol, row + direction, true, promotionSuffix);
-	            }
-	        }
-
-	        // En passant captures
-	        if (enPassant && row == (color ? 4 : 3)) {
-	            for (int captureCol : captureCols) {
-	                if (isValidPosition(row, captureCol) && board[row][captureCol] instanceof pawn &&
-	                    board[row][captureCol].isWhite() != color) {
-	                    addMove(moves, captureCol, row + direction, true, "");
-	                }
-	            }
-	        }
-
-	        return moves;
-	    }
-
-	    private void addMove(ArrayList<String> moves, int col, int newRow, boolean isCapture, String promotionSuffixes) {
-	        char startFile = (char) ('a' + this.col);
-	        char targetFile = (char) ('a' + col);
-	        int targetRow = newRow + 1;
-	        String move = "" + (isCapture ? startFile + "x" : "") + targetFile + targetRow;
-
-	        if (promotionSuffixes.isEmpty()) {
-	            moves.add(move);
-	        } else {
-	            for (char suffix : promotionSuffixes.toCharArray()) {
-	                moves.add(move + suffix);
-	            }
-	        }
-	    }
-
-	    private boolean isValidPosition(int row, int col) {
-	        return row >= 0 && row < 8 && col >= 0 && col < 8;
-	    }
-		public String toString() {
-			if(isWhite()) return "p";
-			return "P";
+
+	public int pawnOpening() {
+		return cb.pawnOpening;
+	}
+
+	public int pawnEnding() {
+		return cb.pawnEnding;
+	}
+
+	public int knightSquares() {
+		return cb.knightSquares;
+	}
+
+	public int kingSquares() {
+		return cb.kingSquares;
+	}
+
+	long pieces(int code) {
+		return cb.pieces[code];
+	}
+
+	long occupied() {
+		return cb.occupied;
+	}
+
+	//The castling rights that are left, as the WHITE_KING_SIDE... bits
+	int castling() {
+		return cb.castling;
+	}
+
+	//The square a pawn skipped over last move if a pawn can take it there, -1 if not
+	int enPassant() {
+		return cb.enPassant;
+	}
+
+	//The piece code on the square, 0 if it is empty
+	int piece(int square) {
+		return cb.squares[square];
+	}
+
+	static int code(int type, boolean white) {
+		return white ? type*2-1 : type*2;
+	}
+
+	static int type(int code) {
+		return (code+1) >> 1;
+	}
+
+	static boolean isWhite(int code) {
+		return (code & 1) == 1;
+	}
+
+	static int from(int move) {
+		return move & 63;
+	}
+
+	static int to(int move) {
+		return (move >> 6) & 63;
+	}
+
+	static int promotion(int move) {
+		return (move >> 12) & 7;
+	}
+
+	static boolean isCapture(int move) {
+		return (move & CAPTURE) != 0;
+	}
+
+	//Walks every set of blockers in the mask and puts the attacks for it where the magic number sends it
+	private static void fillMagic(int sq, long mask, long magic, boolean bishop, long[] table, int offset) {
+		int shift = 64 - Long.bitCount(mask);
+		long occ = 0;
+		do {
+			table[offset + (int)((occ * magic) >>> shift)] = bishop ? slideBishop(sq, occ) : slideRook(sq, occ);
+			occ = (occ - mask) & mask;
+		} while(occ != 0);
+	}
+
+	//Walks one ray from the square until it hits a piece. The piece that stops it is included
+	static long slide(int sq, long occupied, int rowDir, int colDir) {
+		long attacks = 0;
+		int row = sq/8 + rowDir;
+		int col = sq%8 + colDir;
+		while(row >= 0 && row <= 7 && col >= 0 && col <= 7) {
+			long b = 1L << (row*8 + col);
+			attacks |= b;
+			if((occupied & b) != 0) break;
+			row += rowDir;
+			col += colDir;
 		}
+		return attacks;
 	}
-	//Handles all actions that a Knight may do
-	class knight extends piece{
-		knight(boolean color, int row, int col) {
-			super(color, row, col);
+
+	//Only used to fill the magic tables
+	private static long slideBishop(int sq, long occupied) {
+		return slide(sq, occupied, 1, 1) | slide(sq, occupied, 1, -1) | slide(sq, occupied, -1, 1) | slide(sq, occupied, -1, -1);
+	}
+
+	private static long slideRook(int sq, long occupied) {
+		return slide(sq, occupied, 1, 0) | slide(sq, occupied, -1, 0) | slide(sq, occupied, 0, 1) | slide(sq, occupied, 0, -1);
+	}
+
+	static long bishopAttacks(int sq, long occupied) {
+		return bishopTable[bishopOffsets[sq] + (int)(((occupied & bishopMasks[sq]) * bishopMagics[sq]) >>> bishopShifts[sq])];
+	}
+
+	static long rookAttacks(int sq, long occupied) {
+		return rookTable[rookOffsets[sq] + (int)(((occupied & rookMasks[sq]) * rookMagics[sq]) >>> rookShifts[sq])];
+	}
+
+	static long queenAttacks(int sq, long occupied) {
+		return bishopAttacks(sq, occupied) | rookAttacks(sq, occupied);
+	}
+
+	//The representation of the board itself and handles all of the logic
+	class chessBoard{
+		HashMap<String, Integer> blackMoves; //Notation for all legal black moves, only built when the game is asked for them
+		HashMap<String, Integer> whiteMoves; //Notation for all legal white moves, only built when the game is asked for them
+		boolean whiteMove = true; //If it is whites move or blacks
+		long[] pieces = new long[13]; //One bitboard per piece code, index 0 is unused
+		int[] squares = new int[64]; //The piece code on every square, 0 if it is empty
+		long whitePieces;
+		long blackPieces;
+		long occupied;
+		int castling; //The castling rights that are left
+		int enPassant = -1; //The square a pawn skipped over last move when it can be captured there, -1 if there is none
+		long key; //Zobrist key, updated with every change to the board
+		long pawnKey; //The same but only for the pawns, so chessAI can keep pawn scores for every position with the same pawns
+		//The NNUE accumulators, only kept once a network is attached with useNnue
+		nnueNetwork nnue;
+		short[] accumulator;
+		float[] nnueInput;
+		//Evaluation totals for chessAI, updated with every piece put on or taken off the board
+		int material;
+		int pawnOpening;
+		int pawnEnding;
+		int knightSquares;
+		int kingSquares;
+		//Attack maps. attackSet is what the piece on each square attacks and attackCount is how many pieces of each color
+		//attack each square, [0] for white. Only the piece that moved and the sliders with a ray through its squares are updated
+		long[] attackSet = new long[64];
+		int[][] attackCount = new int[2][64];
+		//Set by the generator for the color it is working on
+		int kingSquare;
+		long pinned;
+		//Undo stack, one entry for every move made that has not been taken back
+		int ply = 0;
+		int[] undoMove = new int[256];
+		int[] undoCaptured = new int[256];
+		int[] undoCastling = new int[256];
+		int[] undoEnPassant = new int[256];
+		chessBoard(){
+			resetBoard();
 		}
-		@Override
-		int getValue() { return 3; }
-		@Override
-		ArrayList<String> legalMoves(piece[][] board) {
-			ArrayList<String> moves = new ArrayList<String>();
-			int[][] directions = {{2,1},{2,-1},{-2,1},{-2,-1},{1,2},{-1,2},{1,-2},{-1,-2}};
-			for(int[] dir : directions) {
-				if(row+dir[0] < 0 || row+dir[0] > 7 || col+dir[1] < 0 || col+dir[1] > 7) continue;
-				if(board[row+dir[0]][col+dir[1]] == null) moves.add("N" + (char)(col+dir[1] + 'a') + (char)(row+dir[0]+'1'));
-				else if(board[row+dir[0]][col+dir[1]].color != color) moves.add("Nx" + (char)(col+dir[1] + 'a') + (char)(row+dir[0]+'1'));
-				else board[row+dir[0]][col+dir[1]].setDefended(true);
+
+		chessBoard(String[] moves){
+			resetBoard();
+			for(String s : moves) {
+				move(s);
 			}
-			return moves;
-		}
-		public String toString() {
-			if(isWhite()) return "n";
-			return "N";
-		}
-	}
-	//Handles all actions that a bishop may do
-	class bishop extends piece{
-		bishop(boolean color, int row, int col) {
-			super(color, row, col);
 		}
-		@Override
-		int getValue() { return 3; }
-		@Override
-		ArrayList<String> legalMoves(piece[][] board) {
-			ArrayList<String> moves = new ArrayList<String>();
-			boolean upRight = false;
-			piece pieceUpRight = null;
-			boolean upLeft = false;
-			piece pieceUpLeft = null;
-			boolean downRight = false;
-			piece pieceDownRight = null;
-			boolean downLeft = false;
-			piece pieceDownLeft = null;
-			boolean moveUpRight = false;
-			boolean moveUpLeft = false;
-			boolean moveDownRight = false;
-			boolean moveDownLeft = false;
-			for(int i = 1; i < 8; i++) {
-				if(row+i < 8 && col+i < 8) {
-					if(board[row+i][col+i] != null) {
-						moveUpRight = true;
-						if(!upRight && pieceUpRight == null) {
-							if(board[row+i][col+i].isWhite() != isWhite()) {
-								moves.add("Bx" + (char)('a'+col+i) + (char)('1'+row+i));
-								pieceUpRight = board[row+i][col+i];
-							}else board[row+i][col+i].setDefended(true);
-							upRight = true;
-						}else if(upRight && pieceUpRight != null)  {
-							upRight = false;
-							if(board[row+i][col+i] instanceof king) pieceUpRight.setPinned(true);
-						}
-					} else if(!moveUpRight) moves.add("B" + (char)('a'+col+i) + (char)('1'+row+i));
-				}if(row+i < 8 && col-i >= 0) {
-					if(board[row+i][col-i] != null) {
-						moveUpLeft = true;
-						if(!upLeft && pieceUpLeft == null) {
-							if(board[row+i][col-i].isWhite() != isWhite()) {
-								moves.add("Bx" + (char)('a'+col-i) + (char)('1'+row+i));
-								pieceUpLeft = board[row+i][col-1];
-							}else board[row+i][col-i].setDefended(true);
-							upLeft = true;
-						}else if(upLeft && pieceUpLeft != null) {
-							upLeft = false;
-							if(board[row+i][col-i] instanceof king) pieceUpLeft.setPinned(true);
-						}
-					} else if(!moveUpLeft) moves.add("B" + (char)('a'+col-i) + (char)('1'+row+i));
-				}if(row-i >= 0 && col+i < 8) {
-					if(board[row-i][col+i] != null) {
-						moveDownRight = true;
-						if(!downRight && pieceDownRight == null) {
-							if(board[row-i][col+i].isWhite() != isWhite()) {
-								moves.add("Bx" + (char)('a'+col+i) + (char)('1'+row-i));
-								pieceDownRight = board[row-i][col+1];
-							}else board[row-i][col+i].setDefended(true);
-							downRight = true;
-						}else if(downRight && pieceDownRight != null) {
-							downRight = false;
-							if(board[row-i][col+i] instanceof king) pieceDownRight.setPinned(true);
-						}
-					} else if(!moveDownRight) moves.add("B" + (char)('a'+col+i) + (char)('1'+row-i));
-				}if(row-i >= 0 && col-i >= 0) {
-					if(board[row-i][col-i] != null) {
-						moveDownLeft = true;
-						if(!downLeft && pieceDownLeft == null) {
-							if(board[row-i][col-i].isWhite() != isWhite()) {
-								moves.add("Bx" + (char)('a'+col-i) + (char)('1'+row-i));
-								pieceDownLeft = board[row-i][col-i];
-							}else board[row-i][col-i].setDefended(true);
-							downLeft = true;
-						} else if(downLeft && pieceDownLeft != null) {
-							downLeft = false;
-							if(board[row-i][col-i] instanceof king) pieceDownLeft.setPinned(true);
-						}
-					} else if(!moveDownLeft) moves.add("B" + (char)('a'+col-i) + (char)('1'+row-i));
+
+		chessBoard(String fen){
+			String[] parts = fen.trim().split("\\s+");
+			int row = 7;
+			int col = 0;
+			for(char c : parts[0].toCharArray()) {
+				if(c == '/') {
+					row--;
+					col = 0;
+				}
+				else if(c >= '1' && c <= '8') col += c - '0';
+				else {
+					putPiece(code(" pnbrqk".indexOf(Character.toLowerCase(c)), Character.isUpperCase(c)), row*8 + col);
+					col++;
 				}
 			}
-			return moves;
+			whiteMove = parts.length < 2 || parts[1].equals("w");
+			if(parts.length > 2) {
+				if(parts[2].indexOf('K') >= 0) castling |= WHITE_KING_SIDE;
+				if(parts[2].indexOf('Q') >= 0) castling |= WHITE_QUEEN_SIDE;
+				if(parts[2].indexOf('k') >= 0) castling |= BLACK_KING_SIDE;
+				if(parts[2].indexOf('q') >= 0) castling |= BLACK_QUEEN_SIDE;
+			}
+			if(parts.length > 3 && !parts[3].equals("-")) {
+				int sq = (parts[3].charAt(1) - '1')*8 + parts[3].charAt(0) - 'a';
+				//Same as after a move, only kept when a pawn can take there
+				if((pawnAttacks[whiteMove ? 1 : 0][sq] & pieces[code(PAWN, whiteMove)]) != 0) enPassant = sq;
+			}
+			key = computeKey();
 		}
-		public String toString() {
-			if(isWhite()) return "b";
-			return "B";
+
+		chessBoard(chessBoard other){
+			pieces = other.pieces.clone();
+			squares = other.squares.clone();
+			whitePieces = other.whitePieces;
+			blackPieces = other.blackPieces;
+			occupied = other.occupied;
+			castling = other.castling;
+			enPassant = other.enPassant;
+			whiteMove = other.whiteMove;
+			attackSet = other.attackSet.clone();
+			attackCount = new int[][] {other.attackCount[0].clone(), other.attackCount[1].clone()};
+			key = other.key;
+			pawnKey = other.pawnKey;
+			nnue = other.nnue;
+			if(nnue != null) {
+				accumulator = other.accumulator.clone();
+				nnueInput = new float[accumulator.length];
+			}
+			material = other.material;
+			pawnOpening = other.pawnOpening;
+			pawnEnding = other.pawnEnding;
+			knightSquares = other.knightSquares;
+			kingSquares = other.kingSquares;
 		}
-	}
-	//Handles all actions that a rook may do
-	class rook extends piece{
-		boolean castle = true;
-		rook(boolean color, int row, int col) {
-			super(color, row, col);
+
+		chessBoard(int[] a, boolean whitesMove){
+			whiteMove = whitesMove;
+			for(int i = 0; i < 64; i++) {
+				if(a[i] != 0) putPiece(a[i], i);
+			}
+			//There is no history so castling is allowed if the king and rook have not left their squares
+			if(squares[4] == code(KING, true)) {
+				if(squares[7] == code(ROOK, true)) castling |= WHITE_KING_SIDE;
+				if(squares[0] == code(ROOK, true)) castling |= WHITE_QUEEN_SIDE;
+			}
+			if(squares[60] == code(KING, false)) {
+				if(squares[63] == code(ROOK, false)) castling |= BLACK_KING_SIDE;
+				if(squares[56] == code(ROOK, false)) castling |= BLACK_QUEEN_SIDE;
+			}
+			key = computeKey();
 		}
-		void setCastle(boolean castle) {
-			this.castle = castle;
+
+		//Resets the board to the starting position
+		void resetBoard(){
+			pieces = new long[13];
+			squares = new int[64];
+			whitePieces = 0;
+			blackPieces = 0;
+			occupied = 0;
+			pawnKey = 0;
+			material = 0;
+			pawnOpening = 0;
+			pawnEnding = 0;
+			knightSquares = 0;
+			kingSquares = 0;
+			attackSet = new long[64];
+			attackCount = new int[2][64];
+			int[] backRank = {ROOK, KNIGHT, BISHOP, QUEEN, KING, BISHOP, KNIGHT, ROOK};
+			for(int j = 0; j < 8; j++) {
+				putPiece(code(backRank[j], true), j);
+				putPiece(code(PAWN, true), 8+j);
+				putPiece(code(PAWN, false), 48+j);
+				putPiece(code(backRank[j], false), 56+j);
+			}
+			castling = WHITE_KING_SIDE | WHITE_QUEEN_SIDE | BLACK_KING_SIDE | BLACK_QUEEN_SIDE;
+			enPassant = -1;
+			whiteMove = true;
+			key = computeKey();
 		}
-		@Override
-		int getValue() { return 5; }
-		@Override
-		ArrayList<String> legalMoves(piece[][] board) {
-			ArrayList<String> moves = new ArrayList<String>();
-			boolean up = false;
-			piece pieceUp = null;
-			boolean down = false;
-			piece pieceDown = null;
-			boolean left = false;
-			piece pieceLeft = null;
-			boolean right = false;
-			piece pieceRight = null;
-			boolean moveRight = false;
-			boolean moveLeft = false;
-			boolean moveUp = false;
-			boolean moveDown = false;
-			for(int i = 1; i < 8; i++) {
-				if(row+i < 8) {
-					if(board[row+i][col] != null) {
-						moveUp = true;
-						if(!up && pieceUp == null) {
-							up = true;
-							if(board[row+i][col].isWhite() != isWhite()) {
-								moves.add("Rx" + (char)('a'+ col) + (char)('1' + row+i));
-								pieceUp = board[row+i][col];
-							}else board[row+i][col].setDefended(true);
-						}else if(up && pieceUp != null) {
-							up = false;
-							if(board[row+i][col] instanceof king) pieceUp.setPinned(true);
-						}
-					}else if(!moveUp) moves.add("R" + (char)('a'+ col) + (char)('1' + row+i));
-				}if(row-i >= 0) {
-					if(board[row-i][col] != null) {
-						moveDown = true;
-						if(!down && pieceDown == null) {
-							down = true;
-							if(board[row-i][col].isWhite() != isWhite()) {
-								moves.add("Rx" + (char)('a'+ col) + (char)('1' + row-i));
-								pieceDown = board[row-i][col];
-							}else board[row-i][col].setDefended(true);
-						}else if (down && pieceDown != null) {
-							down = false;
-							if(board[row-i][col] instanceof king) pieceDown.setPinned(true);
-						}
-					}
-					else if(!moveDown) moves.add("R" + (char)('a'+ col) + (char)('1' + row-i));
-				}if(col-i >= 0) {
-					if(board[row][col-i] != null) {
-						moveLeft = true;
-						if(!left && pieceLeft == null) {
-							left = true;
-							if(board[row][col-i].isWhite() != isWhite()) {
-								moves.add("Rx" + (char)('a'+ col-i) + (char)('1' + row));
-								pieceLeft = board[row][col-i];
-							}else board[row][col-i].setDefended(true);
-						}else if(left && pieceLeft != null) {
-							left = false;
-							if(board[row][col-i] instanceof king) pieceLeft.setPinned(true);
-						}
-					}
-					else if(!moveLeft) moves.add("R" + (char)('a'+ col-i) + (char)('1' + row));
-				}if(col+i < 8) {
-					if(board[row][col+i] != null) {
-						moveRight = true;
-						if(!right && pieceRight == null) {
-							right = true;
-							if(board[row][col+i].isWhite() != isWhite()) {
-								moves.add("Rx" + (char)('a'+ col+i) + (char)('1' + row));
-								pieceRight = board[row][col+i];
-							}else board[row][col+i].setDefended(true);
-						}else if(right && pieceRight != null) {
-							right = false;
-							if(board[row][col+i] instanceof king) pieceRight.setPinned(true);
-						}
-					}
-					else if(!moveRight) moves.add("R" + (char)('a'+ col+i) + (char)('1' + row));
-				}
+
+		//Builds the Zobrist key from scratch. After this it is only updated with xors as pieces move
+		long computeKey() {
+			long k = zobristCastling[castling];
+			for(int sq = 0; sq < 64; sq++) {
+				if(squares[sq] != 0) k ^= zobristPieces[squares[sq]][sq];
 			}
-			return moves;
+			if(enPassant >= 0) k ^= zobristEnPassant[enPassant%8];
+			if(!whiteMove) k ^= zobristSide;
+			return k;
 		}
-		public String toString() {
-			if(isWhite()) return "r";
-			return "R";
+
+		void putPiece(int code, int sq) {
+			long b = 1L << sq;
+			pieces[code] |= b;
+			squares[sq] = code;
+			key ^= zobristPieces[code][sq];
+			if(type(code) == PAWN) pawnKey ^= zobristPieces[code][sq];
+			if(nnue != null) nnue.update(accumulator, code, sq, true);
+			updateTerms(code, sq, 1);
+			if(isWhite(code)) whitePieces |= b;
+			else blackPieces |= b;
+			occupied |= b;
+			refreshSliders(sq);
+			attackSet[sq] = attacksOf(code, sq, occupied);
+			count(attackSet[sq], isWhite(code) ? 0 : 1, 1);
 		}
-	}
-	//Handles all actions that a queen may do
-	class queen extends piece{
-		queen(boolean color, int row, int col) {
-			super(color, row, col);
+
+		void removePiece(int sq) {
+			long b = ~(1L << sq);
+			key ^= zobristPieces[squares[sq]][sq];
+			if(type(squares[sq]) == PAWN) pawnKey ^= zobristPieces[squares[sq]][sq];
+			if(nnue != null) nnue.update(accumulator, squares[sq], sq, false);
+			updateTerms(squares[sq], sq, -1);
+			count(attackSet[sq], isWhite(squares[sq]) ? 0 : 1, -1);
+			attackSet[sq] = 0;
+			pieces[squares[sq]] &= b;
+			squares[sq] = 0;
+			whitePieces &= b;
+			blackPieces &= b;
+			occupied &= b;
+			refreshSliders(sq);
 		}
-		@Override
-		int getValue() { return 9; }
-		@Override
-		ArrayList<String> legalMoves(piece[][] board) {
-			ArrayList<String> moves = new ArrayList<String>();
-			piece p = null;
-			int distance = 1;
-			int[][] directions = {{1,0},{1,1},{1,-1},{-1,0},{-1,1},{-1,-1},{0,1},{0,-1}};
-			for(int[] dir : directions) {
-				while(row+(dir[0]*distance) >= 0 && row+(dir[0]*distance) <= 7 && col+(dir[1]*distance) >= 0 && col+(dir[1]*distance) <= 7) {
-					if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] == null && p != null) {distance++; continue;}
-					if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] == null && p == null) {
-						moves.add("Q" + (char)(col+(dir[1]*distance)+'a') + (char)(row+(dir[0]*distance)+'1'));
-					}else if(board[row+(dir[0]*distance)][col+(dir[1]*distance)].color != color && p == null) {
-						moves.add("Qx" + (char)(col+(dir[1]*distance)+'a') + (char)(row+(dir[0]*distance)+'1'));
-						p = board[row+(dir[0]*distance)][col+(dir[1]*distance)];
-					}else if(board[row+(dir[0]*distance)][col+(dir[1]*distance)].color == color && p == null){
-						board[row+(dir[0]*distance)][col+(dir[1]*distance)].setDefended(true);
-						break;
-					}else {
-						if(board[row+(dir[0]*distance)][col+(dir[1]*distance)].color != color && board[row+(dir[0]*distance)][col+(dir[1]*distance)] instanceof king) {
-							p.setPinned(true);
-						}else break;
-					}
-					distance++;
-				}
-				p = null;
-				distance = 1;
+
+		//Every square the piece attacks from the square, with occ as the board
+		long attacksOf(int code, int sq, long occ) {
+			switch(type(code)) {
+			case PAWN: return pawnAttacks[isWhite(code) ? 0 : 1][sq];
+			case KNIGHT: return knightAttacks[sq];
+			case BISHOP: return bishopAttacks(sq, occ);
+			case ROOK: return rookAttacks(sq, occ);
+			case QUEEN: return queenAttacks(sq, occ);
+			default: return kingAttacks[sq];
 			}
-			return moves;
 		}
-		public String toString() {
-			if(isWhite()) return "q";
-			return "Q";
-		}
-	}
-	//Handles all actions that a king may do
-	class king extends piece{
-		boolean castle = true;
-		king(boolean color, int row, int col) {
-			super(color, row, col);
-		}
-		void setCastle(boolean castle) {
-			this.castle = castle;
+
+		//Adds sign to the count of every square in the set for the color
+		private void count(long set, int color, int sign) {
+			int[] counts = attackCount[color];
+			while(set != 0) {
+				counts[Long.numberOfTrailingZeros(set)] += sign;
+				set &= set-1;
+			}
 		}
-		@Override
-		int getValue() { return 0; }
-		@Override
-		ArrayList<String> legalMoves(piece[][] board) {
-			ArrayList<String> moves = new ArrayList<String>();
-			for(int i = 0; i < 64; i++) {
-				if(board[i/8][i%8] == null || !(board[i/8][i%8] instanceof king) || board[i/8][i%8].color != color) continue;
-				row = i/8;
-				col = i%8;
+
+		//A piece went on or came off the square, so every slider with a ray reaching it now sees a different board
+		//Only the squares that changed are counted again
+		private void refreshSliders(int sq) {
+			long diagonal = pieces[code(BISHOP, true)] | pieces[code(BISHOP, false)] | pieces[code(QUEEN, true)] | pieces[code(QUEEN, false)];
+			long straight = pieces[code(ROOK, true)] | pieces[code(ROOK, false)] | pieces[code(QUEEN, true)] | pieces[code(QUEEN, false)];
+			long sliders = (bishopAttacks(sq, occupied) & diagonal) | (rookAttacks(sq, occupied) & straight);
+			while(sliders != 0) {
+				int from = Long.numberOfTrailingZeros(sliders);
+				sliders &= sliders-1;
+				long before = attackSet[from];
+				long now = attacksOf(squares[from], from, occupied);
+				int color = isWhite(squares[from]) ? 0 : 1;
+				count(before & ~now, color, -1);
+				count(now & ~before, color, 1);
+				attackSet[from] = now;
 			}
-			int[][] directions = {{1,0},{1,1},{1,-1},{-1,0},{-1,1},{-1,-1},{0,1},{0,-1}};
-			for(int[] dir : directions) {
-				if(row+dir[0] < 0 || row+dir[0] > 7 || col+dir[1] < 0 || col+dir[1] > 7) continue;
-				if(board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]].color == color) continue;
-				else if(board[row+dir[0]][col+dir[1]] != null && !(board[row+dir[0]][col+dir[1]].defended)) {
-					moves.add(("Kx" + (char)(col+dir[1] + 'a') + (char)(row+dir[0] + '1')));
-				}
-				else if(board[row+dir[0]][col+dir[1]] != null) continue;
-				else {
-					if(legalSpot(board, row+dir[0], col+dir[1])) {
-						moves.add(("K" + (char)(col+dir[1] + 'a') + (char)(row+dir[0] + '1')));
-					}
-				}
+		}
+
+		//Adds or takes away what the piece on the square is worth to the evaluation totals, using the tables from chessAI
+		void updateTerms(int code, int sq, int sign) {
+			if(!isWhite(code)) sign = -sign;
+			material += sign * chessAI.pieceValues[type(code)];
+			if(type(code) == PAWN) {
+				pawnOpening += sign * chessAI.pawnMapBeggining[sq];
+				pawnEnding += sign * chessAI.pawnMapEnding[sq];
 			}
-			if(castle) {
-				if(isWhite()) {
-					if(board[0][0] != null && board[0][0] instanceof rook && ((rook)board[0][0]).castle) {
-						if(board[0][1] == null && board[0][2] == null && board[0][3] == null) moves.add("O-O-O");
-					}if(board[0][7] != null && board[0][7] instanceof rook && ((rook)board[0][7]).castle) {
-						if(board[0][6] == null && board[0][5] == null) moves.add("O-O");
-					}
-				}else {
-					if(board[7][0] != null && board[7][0] instanceof rook && ((rook)board[7][0]).castle) {
-						if(board[7][1] == null && board[7][2] == null && board[7][3] == null) moves.add("O-O-O");
-					}if(board[7][7] != null && board[7][7] instanceof rook && ((rook)board[7][7]).castle) {
-						if(board[7][6] == null && board[7][5] == null) moves.add("O-O");
-					}
-				}
+			else if(type(code) == KNIGHT) knightSquares += sign * chessAI.knightMapping[sq];
+			else if(type(code) == KING) kingSquares += sign * chessAI.knightMapping[sq];
+		}
+
+		//The legal moves for one color. They are only found the first time they are needed after a move
+		HashMap<String, Integer> moves(boolean white) {
+			if(white) {
+				if(whiteMoves == null) whiteMoves = legalMoves(true);
+				return whiteMoves;
 			}
+			if(blackMoves == null) blackMoves = legalMoves(false);
+			return blackMoves;
+		}
+
+		HashMap<String, Integer> legalMoves(boolean white) {
+			int[] list = new int[256];
+			int n = generate(white, list);
+			HashMap<String, Integer> moves = new HashMap<String, Integer>();
+			for(int i = 0; i < n; i++) moves.put(toNotation(list[i], list, n), list[i]);
 			return moves;
 		}
-		
-		boolean legalSpot(piece[][] board, int row, int col) {
-			int[][] directions = {{1,0},{1,1},{1,-1},{-1,0},{-1,1},{-1,-1},{0,1},{0,-1}};
-			int[][] knightDir = {{2,1},{2,-1},{-2,1},{-2,-1},{1,2},{-1,2},{1,-2},{-1,-2}};
-			for(int[] dir : directions) {
-				int distance = 1;
-				while(row+(dir[0]*distance) >= 0 && row+(dir[0]*distance) <= 7 && col+(dir[1]*distance) >= 0 && col+(dir[1]*distance) <= 7) {
-					if(color) {
-						if(dir[0] == 1 && dir[1] != 0 && board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]] instanceof pawn && board[row+dir[0]][col+dir[1]].color != color)return false;
-					}else {
-						if(dir[0] == -1 && dir[1] != 0 && board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]] instanceof pawn && board[row+dir[0]][col+dir[1]].color != color)return false;
-					}
-					if(board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]] instanceof king) return false;
-					if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] != null && board[row+(dir[0]*distance)][col+(dir[1]*distance)].color != color) {
-						if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] instanceof queen) return false;
-						if(Math.abs(dir[0])+Math.abs(dir[1]) == 2) {
-							if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] instanceof bishop) return false;
-						}
-						else {
-							if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] instanceof rook) return false;
-						}
-					}
-					distance+=1;
-				}
-				distance = 1;
-			}
-			for(int[] dir : knightDir) {
-				if(row+dir[0] < 0 || row+dir[0] > 7 || col+dir[1] < 0 || col+dir[1] > 7) continue;
-				if(board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]].color != color && board[row+dir[0]][col+dir[1]] instanceof knight) return false;
-			}
-			return true;
+
+		boolean inCheck(boolean white) {
+			long k = pieces[code(KING, white)];
+			return k != 0 && attackCount[white ? 1 : 0][Long.numberOfTrailingZeros(k)] != 0;
 		}
-		
-		public String toString() {
-			if(isWhite()) return "k";
-			return "K";
+
+		//Checks if a square is attacked by a color. Only pieces inside of mask are counted as attackers
+		boolean attacked(int sq, boolean byWhite, long occ, long mask) {
+			int c = code(PAWN, byWhite);
+			if((pawnAttacks[byWhite ? 1 : 0][sq] & pieces[c] & mask) != 0) return true;
+			if((knightAttacks[sq] & pieces[c+2] & mask) != 0) return true;
+			if((kingAttacks[sq] & pieces[c+10] & mask) != 0) return true;
+			long queens = pieces[c+8];
+			if((bishopAttacks(sq, occ) & (pieces[c+4] | queens) & mask) != 0) return true;
+			return (rookAttacks(sq, occ) & (pieces[c+6] | queens) & mask) != 0;
 		}
-	}
-	//The representation of the board itself and handles all of the logic
-	class chessBoard{
-		HashMap<String, piece> blackMoves = new HashMap<String, piece>(); //All legal black moves in chess notation
-		HashMap<String, piece> whiteMoves = new HashMap<String, piece>(); //All legal white moves in chess notation
-		boolean whiteMove = true; //If it is whites move or blacks
-		piece[][] board = new piece[8][8];
-		boolean[][] whiteLOS = new boolean[8][8]; //The line of sight of all white pieces. Used for checkmate
-		boolean[][] blackLOS = new boolean[8][8]; //The line of sight of all black pieces. Used for checkmate
-		boolean gameOver;
-		boolean whiteInCheck = false;
-		boolean blackInCheck = false;
-		chessBoard(){
-			resetBoard();
-			findLegalMoves();
+
+		//Checks if the king is safe after the piece on from goes to to, without changing the board
+		boolean safeAfter(int from, int to, boolean white) {
+			int mover = squares[from];
+			if(type(mover) == KING) return kingSafeAt(from, to, white);
+			long toBit = 1L << to;
+			long captured = toBit;
+			if(type(mover) == PAWN && to == enPassant && squares[to] == 0) captured = 1L << (white ? to-8 : to+8);
+			long occ = (occupied & ~(1L << from) & ~captured) | toBit;
+			long k = pieces[code(KING, white)];
+			if(k == 0) return true;
+			int kingSq = type(mover) == KING ? to : Long.numberOfTrailingZeros(k);
+			return !attacked(kingSq, !white, occ, ~captured);
 		}
 
-		chessBoard(String[] moves){
-			resetBoard();
-			findLegalMoves();
-			for(String s : moves) {
-				move(s);
+		//A king can go where the other color attacks nothing, as long as it is not stepping back along the ray of a slider that checks it.
+		//The attack maps stop that slider's ray at the king, so it is worked out again without the king in the way
+		boolean kingSafeAt(int from, int to, boolean white) {
+			if(attackCount[white ? 1 : 0][to] != 0) return false;
+			int c = code(PAWN, !white);
+			long queens = pieces[c+8];
+			long occ = occupied & ~(1L << from);
+			long checkers = (bishopAttacks(from, occupied) & (pieces[c+4] | queens)) | (rookAttacks(from, occupied) & (pieces[c+6] | queens));
+			while(checkers != 0) {
+				int sq = Long.numberOfTrailingZeros(checkers);
+				checkers &= checkers-1;
+				if((attacksOf(squares[sq], sq, occ) & (1L << to)) != 0) return false;
 			}
+			return true;
 		}
-		
-		chessBoard(int[] a, boolean whitesMove){
-			whiteMove = whitesMove;
-			for(int i = 0; i < 64; i++) {
-				if(a[i] == 0) continue;
-				else if(a[i] == 1)board[i/8][i%8] = new pawn(true, i/8, i%8);
-				else if(a[i] == 2)board[i/8][i%8] = new pawn(false, i/8, i%8);
-				else if(a[i] == 3)board[i/8][i%8] = new knight(true, i/8, i%8);
-				else if(a[i] == 4)board[i/8][i%8] = new knight(false, i/8, i%8);
-				else if(a[i] == 5)board[i/8][i%8] = new bishop(true, i/8, i%8);
-				else if(a[i] == 6)board[i/8][i%8] = new bishop(false, i/8, i%8);
-				else if(a[i] == 7)board[i/8][i%8] = new rook(true, i/8, i%8);
-				else if(a[i] == 8)board[i/8][i%8] = new rook(false, i/8, i%8);
-				else if(a[i] == 9)board[i/8][i%8] = new queen(true, i/8, i%8);
-				else if(a[i] == 10)board[i/8][i%8] = new queen(false, i/8, i%8);
-				else if(a[i] == 11)board[i/8][i%8] = new king(true, i/8, i%8);
-				else if(a[i] == 12)board[i/8][i%8] = new king(false, i/8, i%8);
+
+		//Every piece of the color that attacks the square
+		long attackersOf(int sq, boolean byWhite) {
+			int c = code(PAWN, byWhite);
+			long queens = pieces[c+8];
+			return (pawnAttacks[byWhite ? 1 : 0][sq] & pieces[c]) | (knightAttacks[sq] & pieces[c+2]) | (kingAttacks[sq] & pieces[c+10])
+					| (bishopAttacks(sq, occupied) & (pieces[c+4] | queens)) | (rookAttacks(sq, occupied) & (pieces[c+6] | queens));
+		}
+
+		//Pieces of the color that are the only thing between their king and an enemy slider. The slider rays are worked out
+		//with only the enemy pieces on the board, so every slider lined up with the king is found
+		long pinnedPieces(int kingSq, boolean white) {
+			int c = code(PAWN, !white);
+			long queens = pieces[c+8];
+			long enemy = white ? blackPieces : whitePieces;
+			long own = white ? whitePieces : blackPieces;
+			long snipers = (bishopAttacks(kingSq, enemy) & (pieces[c+4] | queens)) | (rookAttacks(kingSq, enemy) & (pieces[c+6] | queens));
+			long pinned = 0;
+			while(snipers != 0) {
+				int sq = Long.numberOfTrailingZeros(snipers);
+				snipers &= snipers-1;
+				long blockers = between[kingSq][sq] & occupied;
+				if(blockers != 0 && (blockers & (blockers-1)) == 0 && (blockers & own) != 0) pinned |= blockers;
 			}
-			findLegalMoves();
+			return pinned;
 		}
-		
-		//Resets the board to the starting position
-		void resetBoard(){
-			board = new piece[8][8];
-			for(int i = 0; i < 8; i++) {
-				for(int j = 0; j < 8; j++) {
-					if(i > 1 && i < 6) continue;
-					if(i == 0 || i == 7) {
-						if(j == 0 || j == 7) board[i][j] = new rook(i == 0, i, j); 
-						else if (j == 1 || j == 6) board[i][j] = new knight(i == 0, i, j);
-						else if (j == 2 || j == 5) board[i][j] = new bishop(i == 0, i, j);
-						else if (j == 3) board[i][j] = new queen(i == 0, i, j);
-						else board[i][j] = new king(i == 0, i, j);
-					}
-					else {
-						board[i][j] = new pawn(i == 1, i, j);
-					}
+
+		private int add(int[] list, int n, int from, int to, int promotion) {
+			boolean capture = squares[to] != 0 || (to == enPassant && type(squares[from]) == PAWN);
+			list[n++] = from | to << 6 | promotion << 12 | (capture ? CAPTURE : 0);
+			return n;
+		}
+
+		private int addPawnMoves(int[] list, int n, long targets, int shift) {
+			while(targets != 0) {
+				int to = Long.numberOfTrailingZeros(targets);
+				targets &= targets-1;
+				int from = to - shift;
+				if((pinned & (1L << from)) != 0 && (line[kingSquare][from] & (1L << to)) == 0) continue;
+				if(to >= 56 || to < 8) {
+					n = add(list, n, from, to, QUEEN);
+					n = add(list, n, from, to, KNIGHT);
+					n = add(list, n, from, to, ROOK);
+					n = add(list, n, from, to, BISHOP);
 				}
+				else n = add(list, n, from, to, 0);
 			}
+			return n;
 		}
-		
-		//Finds all legal moves by finding every type of move then removing anything that would be illegal like if a piece is pinned or a king capturing a defended piece
-		boolean findLegalMoves(){
-			for(int i = 0; i < 8; i++) {
-				for(int j = 0; j < 8; j++) {
-					if(board[i][j] == null) continue;
-					board[i][j].setPinned(false);
-					board[i][j].setDefended(false);
-				}
+
+		private int addPieceMoves(int[] list, int n, int from, long targets) {
+			if((pinned & (1L << from)) != 0) targets &= line[kingSquare][from];
+			while(targets != 0) {
+				int to = Long.numberOfTrailingZeros(targets);
+				targets &= targets-1;
+				n = add(list, n, from, to, 0);
 			}
-			whiteMoves = new HashMap<String, piece>();
-			blackMoves = new HashMap<String, piece>();
-			for(int i = 0; i < 8; i++) {
-				for(int j = 0; j < 8; j++) {
-					if(board[i][j] == null) continue;
-					ArrayList<String> moves = board[i][j].legalMoves(board);
-					if(board[i][j].isWhite()) {
-						for(String s : moves) {
-							if(!whiteMoves.containsKey(s)) whiteMoves.put(s, board[i][j]);
-							else { // Ensures if there are 2 rooks or 2 bishops or 2 queens ect... able to move to the same square there is a clarification for which one is moved
-								
-							}
-						}
-					}else {
-						for(String s : moves) {
-							if(!blackMoves.containsKey(s)) blackMoves.put(s, board[i][j]);
-							else {
-								
-							}
-						}
-					}
-				}
+			return n;
+		}
+
+		//Finds every legal move for one color and returns how many were put in the list
+		int generate(boolean white, int[] list) {
+			return generate(white, list, true);
+		}
+
+		//Only the captures and promotions, so the quiescence search does not have to make every quiet move just to skip it
+		int generateCaptures(boolean white, int[] list) {
+			return generate(white, list, false);
+		}
+
+		//Only legal moves are made, nothing is tried and thrown away. The checkers and pinned pieces are found first.
+		//In double check only the king can move. In single check the other pieces can only take the checker or block it,
+		//and a pinned piece can only move along the line through its king
+		private int generate(boolean white, int[] list, boolean quiet) {
+			int n = 0;
+			long own = white ? whitePieces : blackPieces;
+			long enemy = white ? blackPieces : whitePieces;
+			long empty = ~occupied;
+			long k = pieces[code(KING, white)];
+			kingSquare = Long.numberOfTrailingZeros(k);
+			long checkers = 0;
+			pinned = 0;
+			if(k != 0) {
+				if(attackCount[white ? 1 : 0][kingSquare] != 0) checkers = attackersOf(kingSquare, !white);
+				pinned = pinnedPieces(kingSquare, white);
 			}
-			whiteLOS = new boolean[8][8];
-			blackLOS = new boolean[8][8];
-			whiteInCheck = false;
-			blackInCheck = false;
-			ArrayList<piece> piecesChecking = new ArrayList<piece>();
-			//Finds the line of sight for white
-			Iterator<String> iterator = whiteMoves.keySet().iterator();
-			while (iterator.hasNext()) {
-			    String s = iterator.next();
-				piece p = whiteMoves.get(s);
-				if(p.pinned) {
-					iterator.remove();
-					continue;
-				}
-				if(s.charAt(0) == 'O') continue;
-				int col = s.charAt(s.length()-2)-'a';
-				int row = s.charAt(s.length()-1)-'1';
-				if(row > 7 || row < 0) {
-					col = s.charAt(s.length()-3)-'a';
-					row = s.charAt(s.length()-2)-'1';
-				}
-				if(board[row][col] instanceof king) { 
-					blackInCheck = true;
-					piecesChecking.add(p);
-				}
-				whiteLOS[row][col] = true;
+			long target = quiet ? ~own : enemy;
+			long pushTarget = quiet ? empty : empty & (RANK_1 | RANK_8);
+			if(checkers != 0) {
+				long evasions = (checkers & (checkers-1)) != 0 ? 0 : checkers | between[kingSquare][Long.numberOfTrailingZeros(checkers)];
+				target &= evasions;
+				pushTarget &= evasions;
 			}
-			//Finds the line of sight for black
-			iterator = blackMoves.keySet().iterator();
-			while (iterator.hasNext()) {
-			    String s = iterator.next();
-				piece p = blackMoves.get(s);
-				if(p.pinned) {
-					iterator.remove();
-					continue;
-				}
-				if(s.charAt(0) == 'O') continue;
-				int col = s.charAt(s.length()-2)-'a';
-				int row = s.charAt(s.length()-1)-'1';
-				if(row > 7 || row < 0) {
-					col = s.charAt(s.length()-3)-'a';
-					row = s.charAt(s.length()-2)-'1';
-				}
-				if(row < 0 || row >= 8 || col < 0 || col >= 8) {
-					iterator.remove(); 
-					continue;
-				}
-				if(board[row][col] instanceof king) {
-					whiteInCheck = true;
-					piecesChecking.add(p);
-				}
-				blackLOS[row][col] = true;
+			long pawns = pieces[code(PAWN, white)];
+			if(white) {
+				long single = (pawns << 8) & empty;
+				n = addPawnMoves(list, n, single & pushTarget, 8);
+				if(quiet) n = addPawnMoves(list, n, ((single & RANK_3) << 8) & pushTarget, 16);
+				n = addPawnMoves(list, n, ((pawns & ~FILE_A) << 7) & enemy & target, 7);
+				n = addPawnMoves(list, n, ((pawns & ~FILE_H) << 9) & enemy & target, 9);
+			}else {
+				long single = (pawns >>> 8) & empty;
+				n = addPawnMoves(list, n, single & pushTarget, -8);
+				if(quiet) n = addPawnMoves(list, n, ((single & RANK_6) >>> 8) & pushTarget, -16);
+				n = addPawnMoves(list, n, ((pawns & ~FILE_A) >>> 9) & enemy & target, -9);
+				n = addPawnMoves(list, n, ((pawns & ~FILE_H) >>> 7) & enemy & target, -7);
 			}
-			
-			//Checks for castling through check
-			if(whiteMoves.containsKey("O-O") && !blackLOS[0][5] && !blackLOS[0][6]) whiteMoves.remove("O-O");
-			if(whiteMoves.containsKey("O-O-o") && !blackLOS[0][3] && !blackLOS[0][2]) whiteMoves.remove("O-O-O");
-			if(blackMoves.containsKey("O-O") && !whiteLOS[7][5] && !whiteLOS[7][6]) blackMoves.remove("O-O");
-			if(blackMoves.containsKey("O-O-O") && !whiteLOS[7][3] && !whiteLOS[7][2]) blackMoves.remove("O-O-O");
-			
-			//This will find the squares we must move to to protect the king or capture the piece checking
-			boolean[][] lineOfCheck = new boolean[8][8];
-			if(piecesChecking.size() == 1) {
-				piece p = piecesChecking.get(0);
-				piece k = null;
-				for(int i = 0; i < 64; i++) {
-					if(board[i/8][i%8] instanceof king && board[i/8][i%8].isWhite() != p.isWhite()) {
-						k = board[i/8][i%8];
-						break;
-					}
-				}
-				if(p.row == k.row) {
-					if(p.col > k.col) { for(int i = 0; i < p.col-k.col; i++) if(p.col+i < 8)lineOfCheck[p.row][p.col+i] = true;}
-					else {for(int i = 0; i < k.col-p.col; i++) if(p.col-i >= 0)lineOfCheck[p.row][p.col-i] = true;}
-				}else if(p.col == k.col) {
-					if(p.row > k.row) {for(int i = 0; i < p.row-k.row; i++) if(p.row+i < 8)lineOfCheck[p.row+i][p.col] = true;}
-					else {for(int i = 0; i < k.row-p.row; i++) if(p.row-i >= 0)lineOfCheck[p.row-i][p.col] = true;}
-				}else if(p.col < k.col && p.row < k.row) {
-					for(int i = 0; i < k.col-p.col; i++) {if(p.col+i < 8 && p.row+i < 8)lineOfCheck[p.row+i][p.col+i] = true;}
-				}else if(p.col > k.col && p.row < k.row) {
-					for(int i = 0; i < p.col-k.col; i++) {if(p.row-i >= 0 && p.col+i < 8)lineOfCheck[p.row-i][p.col+i] = true;}
-				}else if(p.col < k.col && p.row > k.row) {
-					for(int i = 0; i < k.col-p.col; i++) {if(p.col-i >= 0 && p.row+i < 8)lineOfCheck[p.row+i][p.col-i] = true;}
-				}else {
-					for(int i = 0; i < p.col-k.col; i++) {if(p.row-i >= 0 && p.col-i >= 0)lineOfCheck[p.row-i][p.col-i] = true;}
+			//En passant only belongs to the side that is about to move. It takes a pawn off a square it does not land on,
+			//which can uncover the king along the rank, so it is the one move still tested after it is found
+			if(enPassant >= 0 && white == whiteMove) {
+				long attackers = pawnAttacks[white ? 1 : 0][enPassant] & pawns;
+				while(attackers != 0) {
+					int from = Long.numberOfTrailingZeros(attackers);
+					attackers &= attackers-1;
+					if(safeAfter(from, enPassant, white)) n = add(list, n, from, enPassant, 0);
 				}
 			}
-			setPinned();
-			iterator = whiteMoves.keySet().iterator();
-			while (iterator.hasNext()) {
-			    String s = iterator.next();
-			    piece p = whiteMoves.get(s);
-			    if(p.pinned) iterator.remove();
-			    else if (s.charAt(0) == 'K') {
-			        if (whiteLOS[s.charAt(s.length() - 1) - '1'][s.charAt(s.length() - 2) - 'a'] || (board[s.charAt(s.length() - 1) - '1'][s.charAt(s.length() - 2) - 'a'] != null && board[s.charAt(s.length() - 1) - '1'][s.charAt(s.length() - 2) - 'a'].defended)) {
-			            iterator.remove();
-			            continue;
-			        }
-			    }
+			long b = pieces[code(KNIGHT, white)] & ~pinned; //A pinned knight can never stay on the line
+			while(b != 0) {
+				int from = Long.numberOfTrailingZeros(b);
+				b &= b-1;
+				n = addPieceMoves(list, n, from, knightAttacks[from] & target);
 			}
-			setDefended();
-			//Removes all moves that do not get out of check
-			if(whiteInCheck) {
-				whiteMoves.remove("O-O-O");
-				whiteMoves.remove("O-O");
-				iterator = whiteMoves.keySet().iterator();
-				while (iterator.hasNext()) {
-				    String s = iterator.next();
-				    if (piecesChecking.size() > 1) {
-				        iterator.remove();
-				        continue;
-				    } else {
-				    	int row = s.charAt(s.length() - 1) - '1';
-				    	int col = s.charAt(s.length() - 2) - 'a';
-				    	if(row < 0 || row > 7) {
-				    		row = s.charAt(s.length() - 2) - '1';
-					    	col = s.charAt(s.length() - 3) - 'a';
-				    	}if(piecesChecking.get(0).col == col && piecesChecking.get(0).row == row && !(whiteMoves.get(s) instanceof king)) continue;
-				        if (!lineOfCheck[row][col] && !(whiteMoves.get(s) instanceof king)) {
-				            iterator.remove();
-				        }
-				    }
-				}
-				//fixKingLegalMoves(true);
+			b = pieces[code(BISHOP, white)] | pieces[code(QUEEN, white)];
+			while(b != 0) {
+				int from = Long.numberOfTrailingZeros(b);
+				b &= b-1;
+				n = addPieceMoves(list, n, from, bishopAttacks(from, occupied) & target);
 			}
-			
-			iterator = blackMoves.keySet().iterator();
-			while (iterator.hasNext()) {
-			    String s = iterator.next();
-			    piece p = blackMoves.get(s);
-			    if(p.pinned) iterator.remove();
-			    else if (s.charAt(0) == 'K') {
-			        if (whiteLOS[s.charAt(s.length() - 1) - '1'][s.charAt(s.length() - 2) - 'a'] || (board[s.charAt(s.length() - 1) - '1'][s.charAt(s.length() - 2) - 'a'] != null && board[s.charAt(s.length() - 1) - '1'][s.charAt(s.length() - 2) - 'a'].defended)) {
-			            iterator.remove();
-			            continue;
-			        }
-			    }
+			b = pieces[code(ROOK, white)] | pieces[code(QUEEN, white)];
+			while(b != 0) {
+				int from = Long.numberOfTrailingZeros(b);
+				b &= b-1;
+				n = addPieceMoves(list, n, from, rookAttacks(from, occupied) & target);
 			}
-			
-			if(blackInCheck) {
-				blackMoves.remove("O-O-O");
-				blackMoves.remove("O-O");
-				iterator = blackMoves.keySet().iterator();
-				while (iterator.hasNext()) {
-				    String s = iterator.next();
-				    if (piecesChecking.size() > 1) {
-				        iterator.remove();
-				        continue;
-				    } else {
-				    	int r = s.charAt(s.length() - 1) - '1';
-				    	int c = s.charAt(s.length() - 2) - 'a';
-				    	if(r > 7 || r < 0) {
-				    		r = s.charAt(s.length() - 2) - '1';
-					    	c = s.charAt(s.length() - 3) - 'a';
-				    	}if(piecesChecking.get(0).col == c && piecesChecking.get(0).row == r && !(blackMoves.get(s) instanceof king)) continue;
-				        if (!lineOfCheck[r][c] && !(blackMoves.get(s) instanceof king)) {
-				            iterator.remove();
-				        }
-				    }
-				}
-				//fixKingLegalMoves(false);
-			}	
-			fixKingLegalMoves(true);
-			fixKingLegalMoves(false);
-			gameOver = (whiteInCheck && whiteMoves.isEmpty()) || (blackInCheck && blackMoves.isEmpty());
-			return gameOver;
-		}
-		
-		//Sets the pieces to defended if they are defended. This was used more for just testing if things were being set properly or if some pieces weren't working properly.
-		void setDefended() {
-			for(int i = 0; i < 8; i++) {
-				for(int j = 0; j < 8; j++) {
-					if(board[i][j] == null) continue;
-					if(board[i][j] instanceof pawn) {
-						if(board[i][j].color) {
-							if(i+1 != 8) {
-								if(j+1 < 8 && board[i+1][j+1] != null && board[i+1][j+1].color == board[i][j].color) board[i+1][j+1].setDefended(true);
-								if(j-1 >= 0 && board[i+1][j-1] != null && board[i+1][j-1].color == board[i][j].color) board[i+1][j-1].setDefended(true);
-							}
-						}else {
-							if(i-1 >= 0) {
-								if(j+1 < 8 && board[i-1][j+1] != null && board[i-1][j+1].color == board[i][j].color) board[i-1][j+1].setDefended(true);
-								if(j-1 >= 0 && board[i-1][j-1] != null && board[i-1][j-1].color == board[i][j].color) board[i-1][j-1].setDefended(true);
-							}
-						}
-					}
+			if(k != 0) {
+				long moves = kingAttacks[kingSquare] & (quiet ? ~own : enemy);
+				while(moves != 0) {
+					int to = Long.numberOfTrailingZeros(moves);
+					moves &= moves-1;
+					if(kingSafeAt(kingSquare, to, white)) n = add(list, n, kingSquare, to, 0);
 				}
+				if(quiet && checkers == 0) n = addCastles(list, n, kingSquare, white);
 			}
+			return n;
 		}
-		
-		//Does what it sounds like. I had some errors with a king sometimes capturing a defended piece or moving into the line of sight of a piece
-		void fixKingLegalMoves(boolean white) {
-			int row = 0;
-			int col = 0;
-			for(int i = 0; i < 64; i++) {
-				if(board[i/8][i%8] == null || !(board[i/8][i%8] instanceof king) || board[i/8][i%8].color != white) continue;
-				row = i/8;
-				col = i%8;
+
+		//Castling needs the rights, empty squares between the king and rook, and the king can not start in, pass through or land in check
+		private int addCastles(int[] list, int n, int from, boolean white) {
+			int rank = white ? 0 : 56;
+			int kingSide = white ? WHITE_KING_SIDE : BLACK_KING_SIDE;
+			int queenSide = white ? WHITE_QUEEN_SIDE : BLACK_QUEEN_SIDE;
+			int[] enemy = attackCount[white ? 1 : 0];
+			if(from != rank+4 || (castling & (kingSide | queenSide)) == 0 || enemy[from] != 0) return n;
+			if((castling & kingSide) != 0 && squares[rank+7] == code(ROOK, white) && (occupied & (3L << (rank+5))) == 0 && enemy[rank+5] == 0 && enemy[rank+6] == 0) {
+				n = add(list, n, from, rank+6, 0);
 			}
-			int[][] directions = {{1,0},{1,1},{1,-1},{-1,0},{-1,1},{-1,-1},{0,1},{0,-1}};
-			for(int[] dir : directions) {
-				if(row+dir[0] < 0 || row+dir[0] > 7 || col+dir[1] < 0 || col+dir[1] > 7) continue;
-				if(board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]].color == white) continue;
-				else if(board[row+dir[0]][col+dir[1]] != null && !(board[row+dir[0]][col+dir[1]].defended)) {
-					if(white) whiteMoves.put(("Kx" + (char)(col+dir[1] + 'a') + (char)(row+dir[0] + '1')), board[row][col]);
-					else blackMoves.put(("Kx" + (char)(col+dir[1] + 'a') + (char)(row+dir[0] + '1')), board[row][col]);
-				}
-				else {
-					if(legalSpot(row+dir[0], col+dir[1], white)) {
-						if(white) whiteMoves.put(("K" + (char)(col+dir[1] + 'a') + (char)(row+dir[0] + '1')), board[row][col]);
-						else blackMoves.put(("K" + (char)(col+dir[1] + 'a') + (char)(row+dir[0] + '1')), board[row][col]);
-					}
-				}
+			if((castling & queenSide) != 0 && squares[rank] == code(ROOK, white) && (occupied & (7L << (rank+1))) == 0 && enemy[rank+3] == 0 && enemy[rank+2] == 0) {
+				n = add(list, n, from, rank+2, 0);
 			}
+			return n;
 		}
-		//Helper function for fixKingLegalMoves. Checks to see if the square is safe or not.
-		boolean legalSpot(int row, int col, boolean white) {
-			int[][] directions = {{1,0},{1,1},{1,-1},{-1,0},{-1,1},{-1,-1},{0,1},{0,-1}};
-			int[][] knightDir = {{2,1},{2,-1},{-2,1},{-2,-1},{1,2},{-1,2},{1,-2},{-1,-2}};
-			for(int[] dir : directions) {
-				int distance = 1;
-				while(row+(dir[0]*distance) >= 0 && row+(dir[0]*distance) <= 7 && col+(dir[1]*distance) >= 0 && col+(dir[1]*distance) <= 7) {
-					if(white) {
-						if(dir[0] == 1 && dir[1] != 0 && board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]] instanceof pawn && board[row+dir[0]][col+dir[1]].color != white)return false;
-					}else {
-						if(dir[0] == -1 && dir[1] != 0 && board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]] instanceof pawn && board[row+dir[0]][col+dir[1]].color != white)return false;
-					}
-					if(board[row+dir[0]][col+dir[1]] != null && board[row+dir[0]][col+dir[1]] instanceof king) return false;
-					if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] != null && board[row+(dir[0]*distance)][col+(dir[1]*distance)].color != white) {
-						if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] instanceof queen) return false;
-						if(Math.abs(dir[0])+Math.abs(dir[1]) == 2) {
-							if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] instanceof bishop) return false;
-						}
-						else {
-							if(board[row+(dir[0]*distance)][col+(dir[1]*distance)] instanceof rook) return false;
-						}
-					}
-					distance+=1;
-				}
-				distance = 1;
+
+		//Writes the move in chess notation. The other moves are needed to tell apart two pieces that can reach the same square
+		String toNotation(int move, int[] list, int n) {
+			int from = from(move);
+			int to = to(move);
+			int promotion = promotion(move);
+			int t = type(squares[from]);
+			String square = "" + (char)('a' + to%8) + (char)('1' + to/8);
+			if(t == PAWN) {
+				String s = (from%8 != to%8) ? (char)('a' + from%8) + "x" + square : square;
+				if(promotion != 0) s += "  NBRQ".charAt(promotion);
+				return s;
 			}
-			for(int[] dir : knightDir) {
-				if(row+dir[0] < 0 || row+dir[0] > 7 || col+dir[1] < 0 || col+dir[1] > 7) continue;
-				if(board[row+dir[0]][col+dir[1]] == null) continue;
-				if(board[row+dir[0]][col+dir[1]].color == white) continue;
-				if(board[row+dir[0]][col+dir[1]] instanceof knight) return false;
+			if(t == KING && Math.abs(to - from) == 2) return to > from ? "O-O" : "O-O-O";
+			boolean sameFile = false;
+			boolean sameRank = false;
+			boolean ambiguous = false;
+			for(int i = 0; i < n; i++) {
+				int other = from(list[i]);
+				if(other == from || to(list[i]) != to || squares[other] != squares[from]) continue;
+				ambiguous = true;
+				if(other%8 == from%8) sameFile = true;
+				if(other/8 == from/8) sameRank = true;
 			}
-			return true;
+			String s = "" + "  NBRQK".charAt(t);
+			if(ambiguous) {
+				if(!sameFile) s += (char)('a' + from%8);
+				else if(!sameRank) s += (char)('1' + from/8);
+				else s += "" + (char)('a' + from%8) + (char)('1' + from/8);
+			}
+			if(squares[to] != 0) s += "x";
+			return s + square;
 		}
+
 		//Handles the movement based on the move string given
 		boolean move(String move) {
-			piece p = null;
-			//Pawn Movement
-			if(whiteMove) p = whiteMoves.get(move);
-			else p = blackMoves.get(move);
-			if(whiteMove && p == null) {
-				//System.out.println(whiteMoves); 
+			Integer m = moves(whiteMove).get(move);
+			if(m == null) {
+				//System.out.println(moves(whiteMove));
 				return false;
 			}
-			else if(!whiteMove && p == null) {
-				//System.out.println(blackMoves); 
-				return false;
+			makeMove(m);
+			/*
+			if(getGameOver()) {
+				System.out.println("CHECKMATE! " + (whiteMove? "Black" : "White") + " Wins!!!!");
 			}
-			
-			int col = move.charAt(move.length()-2)-'a';
-			int row = move.charAt(move.length()-1)-'1';
-			if(p instanceof rook) ((rook)p).setCastle(false);
-			if(p instanceof king) ((king)p).setCastle(false);
-			if(p instanceof pawn && Math.abs(p.row - row) == 2) {
-				if(col != 7 && board[row][col+1] != null && board[row][col+1] instanceof pawn && board[row][col+1].isWhite() != p.isWhite()) {
-					((pawn)board[row][col+1]).enPassant = true;
-					((pawn)board[row][col+1]).left = true;
-				}
-				if(col != 0 && board[row][col-1] != null && board[row][col-1] instanceof pawn && board[row][col-1].isWhite() != p.isWhite()) {
-					((pawn)board[row][col-1]).enPassant = true;
-					((pawn)board[row][col-1]).left = false;
-				}
+			*/
+			return true;
+		}
+
+		//Makes the move and saves everything needed to take it back on the undo stack
+		void makeMove(int move) {
+			growUndo();
+			undoMove[ply] = move;
+			undoCastling[ply] = castling;
+			undoEnPassant[ply] = enPassant;
+			undoCaptured[ply] = doMove(move);
+			ply++;
+			whiteMove = !whiteMove;
+			key ^= zobristSide;
+			whiteMoves = null;
+			blackMoves = null;
+		}
+
+		//Passes the turn without moving anything, for null move pruning. Only the en passant square is lost, so only it is saved
+		void makeNullMove() {
+			growUndo();
+			undoMove[ply] = 0;
+			undoCaptured[ply] = 0;
+			undoCastling[ply] = castling;
+			undoEnPassant[ply] = enPassant;
+			ply++;
+			if(enPassant >= 0) key ^= zobristEnPassant[enPassant%8];
+			enPassant = -1;
+			whiteMove = !whiteMove;
+			key ^= zobristSide;
+			whiteMoves = null;
+			blackMoves = null;
+		}
+
+		void unmakeNullMove() {
+			ply--;
+			enPassant = undoEnPassant[ply];
+			if(enPassant >= 0) key ^= zobristEnPassant[enPassant%8];
+			whiteMove = !whiteMove;
+			key ^= zobristSide;
+			whiteMoves = null;
+			blackMoves = null;
+		}
+
+		private void growUndo() {
+			if(ply == undoMove.length) {
+				undoMove = Arrays.copyOf(undoMove, ply*2);
+				undoCaptured = Arrays.copyOf(undoCaptured, ply*2);
+				undoCastling = Arrays.copyOf(undoCastling, ply*2);
+				undoEnPassant = Arrays.copyOf(undoEnPassant, ply*2);
 			}
-			else {
-				for(int i = 0; i < 64; i++) {
-					if(board[i%8][i/8] != null && board[i%8][i/8] instanceof pawn) {
-						((pawn)board[i%8][i/8]).enPassant = false;
-					}
-				}
+		}
+
+		//Takes back the last move on the undo stack
+		void unmakeMove() {
+			ply--;
+			int move = undoMove[ply];
+			int from = from(move);
+			int to = to(move);
+			int moved = squares[to];
+			boolean white = isWhite(moved);
+			removePiece(to);
+			putPiece(promotion(move) != 0 ? code(PAWN, white) : moved, from);
+			if(type(moved) == KING && Math.abs(to - from) == 2) {
+				int rookFrom = to > from ? to+1 : to-2;
+				int rookTo = to > from ? to-1 : to+1;
+				putPiece(squares[rookTo], rookFrom);
+				removePiece(rookTo);
 			}
-			if(move.charAt(0) == 'O') {
-				if(p.isWhite()) {
-					if(move.length() > 3) {
-						movePiece(board[0][0], 0, 3);
-						movePiece(p, 0, 2);
-					}else {
-						movePiece(board[0][7], 0, 5);
-						movePiece(p, 0, 6);
-					}
-				}else {
-					if(move.length() > 3) {
-						movePiece(board[7][0], 7, 3);
-						movePiece(p, 7, 2);
-					}else {
-						movePiece(board[7][7], 7, 5);
-						movePiece(p, 7, 6);
-					}
-				}
+			int captured = undoCaptured[ply];
+			if(captured != 0) {
+				if(type(moved) == PAWN && to == undoEnPassant[ply]) putPiece(captured, white ? to-8 : to+8);
+				else putPiece(captured, to);
 			}
-			else if(p instanceof pawn && move.charAt(move.length()-1) - 'A' > 0) {
-				int r = p.row;
-				int c = p.col;
-				if(move.charAt(move.length()-1) == 'Q') board[p.row][p.col] = new queen(p.color, p.row, p.col);
-				else if(move.charAt(move.length()-1) == 'N') board[p.row][p.col] = new knight(p.color, p.row, p.col);
-				else if(move.charAt(move.length()-1) == 'B') board[p.row][p.col] = new bishop(p.color, p.row, p.col);
-				else if(move.charAt(move.length()-1) == 'R') board[p.row][p.col] = new rook(p.color, p.row, p.col);
-				movePiece(board[r][c], move.charAt(move.length()-3) - 'a', move.charAt(move.length()-2) - '1');
+			key ^= zobristCastling[castling] ^ zobristCastling[undoCastling[ply]];
+			if(enPassant >= 0) key ^= zobristEnPassant[enPassant%8];
+			if(undoEnPassant[ply] >= 0) key ^= zobristEnPassant[undoEnPassant[ply]%8];
+			key ^= zobristSide;
+			castling = undoCastling[ply];
+			enPassant = undoEnPassant[ply];
+			whiteMove = !whiteMove;
+			whiteMoves = null;
+			blackMoves = null;
+		}
+
+		//Puts the move on the board, including captures, promotions, castling and en passant. Returns the piece that was captured
+		int doMove(int move) {
+			int from = from(move);
+			int to = to(move);
+			int promotion = promotion(move);
+			int mover = squares[from];
+			boolean white = isWhite(mover);
+			int captured = squares[to];
+			if(captured != 0) removePiece(to);
+			else if(type(mover) == PAWN && to == enPassant) {
+				captured = squares[white ? to-8 : to+8];
+				removePiece(white ? to-8 : to+8);
 			}
-			else if(p instanceof pawn && board[row][col] == null && move.charAt(1) == 'x') {
-				if(whiteMove) {
-					board[row-1][col] = null;
-				}else {
-					board[row+1][col] = null;
-				}
-				movePiece(p, row, col);
+			removePiece(from);
+			putPiece(promotion != 0 ? code(promotion, white) : mover, to);
+			if(type(mover) == KING && Math.abs(to - from) == 2) {
+				int rookFrom = to > from ? to+1 : to-2;
+				int rookTo = to > from ? to-1 : to+1;
+				putPiece(squares[rookFrom], rookTo);
+				removePiece(rookFrom);
 			}
-			else movePiece(p, row, col);
-			boolean game = findLegalMoves();
-			/*
-			if(game) {
-				System.out.println("CHECKMATE! " + (whiteMove? "White" : "Black") + " Wins!!!!");
+			key ^= zobristCastling[castling];
+			castling &= castleMask[from] & castleMask[to];
+			key ^= zobristCastling[castling];
+			if(enPassant >= 0) key ^= zobristEnPassant[enPassant%8];
+			enPassant = -1;
+			//The en passant square is only kept when an enemy pawn could take there, so the same position always has the same key
+			if(type(mover) == PAWN && Math.abs(to - from) == 16 && (pawnAttacks[white ? 0 : 1][(from+to)/2] & pieces[code(PAWN, !white)]) != 0) {
+				enPassant = (from+to)/2;
+				key ^= zobristEnPassant[enPassant%8];
 			}
-			*/
-			whiteMove = !whiteMove;
-			return true;
-		}
-		//Helper function to move the piece to the row and col
-		void movePiece(piece p, int row, int col) {
-			board[p.row][p.col] = null;
-			board[row][col] = p;
-			p.row = row;
-			p.col = col;
+			return captured;
 		}
-		
+
+		//Checkmate, the side to move is in check and has no legal moves
 		public boolean getGameOver() {
-			return gameOver;
+			return inCheck(whiteMove) && generate(whiteMove, new int[256]) == 0;
 		}
 		//Meant for the chess AI
 		public int attackingValue() {
+			int[] a = {0, 1, 3, 3, 5, 9, 0}; //Value of the pieces
+			int[] list = new int[256];
 			int value = 0;
-			Set<String> moves = whiteMoves.keySet();
-			for(String s : moves) {
-				if(s.contains("x")) {
-					int row = s.charAt(s.length()-1) - '1';
-					int col = s.charAt(s.length()-2) - 'a';
-					if(row < 0 || row > 8) {
-						row = s.charAt(s.length()-2) - '1';
-						col = s.charAt(s.length()-3) - 'a';
-					}
-					value += board[row][col].getValue();
-				}
-			}
-			moves = blackMoves.keySet();
-			for(String s : moves) {
-				if(s.contains("x")) {
-					int row = s.charAt(s.length()-1) - '1';
-					int col = s.charAt(s.length()-2) - 'a';
-					if(row < 0 || row > 8) {
-						row = s.charAt(s.length()-2) - '1';
-						col = s.charAt(s.length()-3) - 'a';
-					}
-					value -= board[row][col].getValue();
+			for(int side = 0; side < 2; side++) {
+				int n = generate(side == 0, list);
+				for(int i = 0; i < n; i++) {
+					if(!isCapture(list[i])) continue;
+					int captured = squares[to(list[i])] != 0 ? a[type(squares[to(list[i])])] : a[PAWN]; //An empty square is en passant
+					value += side == 0 ? captured : -captured;
 				}
 			}
 			return value;
 		}
-		//Just like set defended this was used for testing purposes
-		public void setPinned() {
-			for(int i = 0; i < 8; i++) {
-				for(int j = 0; j < 8; j++) {
-					if (board[i][j] != null && board[i][j] instanceof king) propagate(i, j, board[i][j].color);
-				}
-			}
-		}
-		//Helper function to setpinned so the nested code was not too large.
-		private void propagate(int row, int col, boolean color) {
-			piece left = null;
-			piece right = null;
-			piece up = null;
-			piece down = null;
-			piece leftUp = null;
-			piece leftDown = null;
-			piece rightUp = null;
-			piece rightDown = null;
-			boolean leftSearch = false;
-			boolean rightSearch = false;
-			boolean upSearch = false;
-			boolean downSearch = false;
-			boolean leftUpSearch = false;
-			boolean leftDownSearch = false;
-			boolean rightUpSearch = false;
-			boolean rightDownSearch = false;
-			for(int i = 1; i < 8; i++) {
-				if(!upSearch && row + i < 8) {
-					if(board[row+i][col] != null && board[row+i][col].color == color && up != null) upSearch = true;
-					if(board[row+i][col] != null && board[row+i][col].color == color) up = board[row+i][col];
-					else if(board[row+i][col] != null && up != null && board[row+i][col].color != color) {
-						if(board[row+i][col] instanceof queen || board[row+i][col] instanceof rook) up.pinned = true;
-					}
-				}if(!rightUpSearch && row + i < 8 && col + i < 8) {
-					if(board[row+i][col+i] != null && board[row+i][col+i].color == color && rightUp != null) rightUpSearch = true;
-					if(board[row+i][col+i] != null && board[row+i][col+i].color == color) rightUp = board[row+i][col+i];
-					else if(board[row+i][col+i] != null && rightUp != null && board[row+i][col+i].color != color) {
-						if(board[row+i][col+i] instanceof queen || board[row+i][col+i] instanceof bishop) rightUp.pinned = true;
-					}
-				}if(!leftUpSearch && row + i < 8 && col - i >= 0) {
-					if(board[row+i][col-i] != null && board[row+i][col-i].color == color && leftUp != null) leftUpSearch = true;
-					if(board[row+i][col-i] != null && board[row+i][col-i].color == color) leftUp = board[row+i][col-i];
-					else if(board[row+i][col-i] != null && leftUp != null && board[row+i][col-i].color != color) {
-						if(board[row+i][col-i] instanceof queen || board[row+i][col-i] instanceof bishop) leftUp.pinned = true;
-					}
-				}if(!downSearch && row - i >= 0) {
-					if(board[row-i][col] != null && board[row-i][col].color == color && down != null) downSearch = true;
-					if(board[row-i][col] != null && board[row-i][col].color == color) down = board[row-i][col];
-					else if(board[row-i][col] != null && down != null && board[row-i][col].color != color) {
-						if(board[row-i][col] instanceof queen || board[row-i][col] instanceof rook) down.pinned = true;
-					}
-				}if(!rightDownSearch && row - i >= 0 && col + i < 8) {
-					if(board[row-i][col+i] != null && board[row-i][col+i].color == color && rightDown != null) rightDownSearch = true;
-					if(board[row-i][col+i] != null && board[row-i][col+i].color == color) rightDown = board[row-i][col+i];
-					else if(board[row-i][col+i] != null && rightDown != null && board[row-i][col+i].color != color) {
-						if(board[row-i][col+i] instanceof queen || board[row-i][col] instanceof bishop) rightDown.pinned = true;
-					}
-				}if(!leftDownSearch && row - i >= 0 && col - i >= 0) {
-					if(board[row-i][col-i] != null && board[row-i][col-i].color == color && leftDown != null) leftDownSearch = true;
-					if(board[row-i][col-i] != null && board[row-i][col-i].color == color) leftDown = board[row-i][col-i];
-					else if(board[row-i][col-i] != null && leftDown != null && board[row-i][col-i].color != color) {
-						if(board[row-i][col-i] instanceof queen || board[row-i][col-i] instanceof bishop) leftDown.pinned = true;
-					}
-				}if(!leftSearch && col - i >= 0) {
-					if(board[row][col-i] != null && board[row][col-i].color == color && left != null) leftSearch = true;
-					if(board[row][col-i] != null && board[row][col-i].color == color) left = board[row][col-i];
-					else if(board[row][col-i] != null && left != null && board[row][col-i].color != color) {
-						if(board[row][col-i] instanceof queen || board[row][col-i] instanceof rook) left.pinned = true;
-					}
-				}if(!rightSearch && col + i < 8) {
-					if(board[row][col+i] != null && board[row][col+i].color == color && right != null) rightSearch = true;
-					if(board[row][col+i] != null && board[row][col+i].color == color) right = board[row][col+i];
-					else if(board[row][col+i] != null && right != null && board[row][col+i].color != color) {
-						if(board[row][col+i] instanceof queen || board[row][col+i] instanceof rook) right.pinned = true;
-					}
-				}
-			}
-		}
-		
+
 		public String toString() {
 			String s = "";
 			for(int i = 0; i < 8; i++) {
 				s += (8-i) + "|";
 				for(int j = 0; j < 8; j++) {
-					if(board[7-i][j] == null) s += " |";
-					else s += board[7-i][j] + "|";
+					s += " pPnNbBrRqQkK".charAt(squares[(7-i)*8 + j]) + "|";
 				}
 				s += '\n';
 			}
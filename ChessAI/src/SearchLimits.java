@@ -0,0 +1,30 @@
+/*
+ * SearchLimits.java
+ * How long chessAI.getBestMove is allowed to search for.
+ * The search deepens one ply at a time until it reaches the depth, runs out of time, or has looked at enough nodes.
+ * A time or node limit of 0 means there is no limit of that kind.
+ */
+
+public class SearchLimits {
+	int depth;
+	long millis;
+	long nodes;
+
+	public SearchLimits(int depth, long millis, long nodes) {
+		this.depth = depth;
+		this.millis = millis;
+		this.nodes = nodes;
+	}
+
+	public static SearchLimits depth(int depth) {
+		return new SearchLimits(depth, 0, 0);
+	}
+
+	public static SearchLimits time(long millis) {
+		return new SearchLimits(64, millis, 0);
+	}
+
+	public static SearchLimits nodes(long nodes) {
+		return new SearchLimits(64, 0, nodes);
+	}
+}
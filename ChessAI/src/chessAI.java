@@ -1,185 +1,621 @@
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.http.HttpRequest.BodyPublishers;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.PriorityQueue;
-
-import com.google.gson.Gson;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /*
  * Owen Michener
  * April 19th, 2024
  * This code uses a minimax search to attempt to play chess.
  * It is currently set up to use a built in heuristic function to evaluate board positions.
- * However, there is still the code left from me attempting to use a neural network with this.
- * This code that is commented out will communicate with server.py to send and recieve data requried to run the neural network.
+ * It can also use the neural network, either run here with neuralEvaluator or on a server like server.py with remoteEvaluator.
  */
 
 public class chessAI {
-	HttpClient client;
-	Gson gson;
-	
 	boolean white;
 	int numberOfMoves = 0;
+	transpositionTable table; //Kept between moves so later searches can use what earlier ones found
+	openingBook book; //null unless setBook was called, then every move is searched
+	endgameTable endgames; //null unless setEndgames was called, then endings are searched like anything else
+	neuralEvaluator network; //null unless useNetwork was called, then the network scores positions instead of evaluateBoard
+	nnueNetwork nnue; //null unless useNnue was called, then the search scores positions with it before anything else
 	
-	static class InputData {
-        private final int[] array;
-
-        public InputData(int[] array) {
-            this.array = array;
-        }
-    }
+	//Scores from value by Zobrist key and game phase. Two longs a slot, key ^ score and the score, checked like the transposition table
+	//so the search threads can share it without locking. A new score always goes over the old one
+	long[] evalCache = new long[EVAL_SLOTS * 2];
+	long[] pawnCache = new long[PAWN_SLOTS * 2]; //pawnStructure by pawn key and phase, laid out like evalCache
 	
-	public class movePair implements Comparable<movePair> {
-	    private String move;
-	    private double value;
-	    private ChessGame game;
-
-	    public movePair(String str, double value, ChessGame game) {
-	        this.move = str;
-	        this.value = value;
-	        this.game = game;
-	    }
-
-	    public String getString() {
-	        return move;
-	    }
-
-	    public double getValue() {
-	        return value;
-	    }
-	    
-	    public ChessGame getGame() {
-	    	return game;
-	    }
-
-	    @Override
-	    public int compareTo(movePair other) {
-	        return Double.compare(other.value, this.value);
-	    }
-	}
+	//Limits for the search that is running. They are shared by every search thread
+	long nodes; //Nodes looked at by all of the threads in the last search
+	long nodeLimit;
+	long deadline;
+	volatile boolean stopped; //Set by the main thread when the limits run out, the helpers stop when they see it
+	
+	//Lazy SMP, every thread searches the same root on its own copy of the game and they only talk through the table
+	int threads;
+	searchThread[] searchers;
+	ExecutorService helpers;
+	
+	//Young Brothers Wait split along the principal variation. At every PV node the first move is searched alone to get alpha
+	//and the rest are split over a ForkJoinPool. Every split thread has its own table and the young brothers go out in fixed groups,
+	//so a fixed depth always gives the same move
+	boolean deterministic;
+	searchThread[] splitters;
+	ForkJoinPool splitPool;
 	
-	class pair{
-		double alpha;
-		double beta;
-		String move;
-		pair(double a, double b, String s){
-			alpha = a;
-			beta = b;
-			move = s;
+	static final int MAX_PLY = 128;
+	//Search scores are centipawns for the side to move. Anything past MATE_BOUND is a mate, MATE minus the plies to it,
+	//and anything past TB_BOUND up to it a win in the endgame tables, TB_WIN minus the plies to the position in them
+	static final int INFINITE = 32001;
+	static final int MATE = 32000;
+	static final int MATE_BOUND = MATE - MAX_PLY;
+	static final int TB_WIN = MATE_BOUND - 1;
+	static final int TB_BOUND = TB_WIN - MAX_PLY;
+	static final int ASPIRATION = 50; //Half the width of the first window at the root
+	
+	//Move ordering bands, each one above anything the band below can score
+	static final int HASH_MOVE = 1000000000;
+	static final int CAPTURES = 1000000;
+	static final int KILLERS = 100000;
+	static final int HISTORY_LIMIT = 50000;
+	static final int[][] LMR = new int[64][256]; //Late move reduction by depth and how far down the list the move is
+	static {
+		for(int d = 1; d < 64; d++) {
+			for(int m = 1; m < 256; m++) LMR[d][m] = (int)(Math.log(d) * Math.log(m) / 2);
 		}
 	}
+	static final int SPLIT_DEPTH = 3; //PV nodes with less depth left than this are not worth handing out
+	static final int DELTA_MARGIN = 200; //Two pawns of slack for the quiescence search to skip a capture that can not reach alpha
+	static final int EVAL_SLOTS = 1 << 16;
+	static final int PAWN_SLOTS = 1 << 14;
+	static final long[] PHASE_KEYS = {0, 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL}; //pawnStructure scores the same position differently in each phase
 	
 	public chessAI(boolean white) {
-		client = HttpClient.newHttpClient();
-
-        gson = new Gson();
-        
-        this.white = white;
+		this(white, 32);
+	}
+	
+	public chessAI(boolean white, int hashMegabytes) {
+		this(white, hashMegabytes, 1);
+	}
+	
+	public chessAI(boolean white, int hashMegabytes, int threads) {
+		this(white, hashMegabytes, threads, false);
+	}
+	
+	//deterministic picks the Young Brothers Wait split instead of Lazy SMP for the extra threads
+	public chessAI(boolean white, int hashMegabytes, int threads, boolean deterministic) {
+		this.white = white;
+        table = new transpositionTable(hashMegabytes);
+        this.threads = Math.max(1, threads);
+        this.deterministic = deterministic && this.threads > 1;
+        if(this.deterministic) {
+        	searchers = new searchThread[] {new searchThread(0)};
+        	splitters = new searchThread[this.threads];
+        	for(int i = 0; i < splitters.length; i++) {
+        		splitters[i] = new searchThread(i+1);
+        		splitters[i].table = new transpositionTable(Math.max(1, hashMegabytes / this.threads));
+        	}
+        	splitPool = new ForkJoinPool(this.threads);
+        	return;
+        }
+        searchers = new searchThread[this.threads];
+        for(int i = 0; i < searchers.length; i++) searchers[i] = new searchThread(i);
+        if(this.threads > 1) {
+        	helpers = Executors.newFixedThreadPool(this.threads - 1, r -> {
+        		Thread t = new Thread(r, "chessAI helper");
+        		t.setDaemon(true); //Do not keep the program running once the game is over
+        		return t;
+        	});
+        }
+	}
+	
+	//Plays from the book at the path, or from no book if it is null
+	public void setBook(String path) {
+		book = path == null ? null : openingBook.open(path);
+	}
+	
+	//Plays the endings from the Syzygy tables in the directory, or searches them if it is null
+	public void setEndgames(String path) {
+		endgames = path == null ? null : endgameTable.open(path);
+	}
+	
+	//Scores positions with the Keras model at the path, like javaModel.h5, run batch boards at a time. null goes back to evaluateBoard
+	public void useNetwork(String path, int batch) throws IOException {
+		setNetwork(path == null ? null : new neuralEvaluator(path, batch));
+	}
+	
+	//Scores positions in the search with the NNUE network in the file, or goes back to the other evaluation if it is null.
+	//The program has to be run with --add-modules jdk.incubator.vector
+	public void useNnue(String path) throws IOException {
+		nnue = path == null ? null : nnueNetwork.load(path);
+	}
+	
+	//Scores positions on a model server like evaluationServer at the url, like "http://localhost:5000/predict", batch boards per request
+	public void useRemote(String url, int batch) {
+		setNetwork(url == null ? null : new remoteEvaluator(url, batch));
+	}
+	
+	private void setNetwork(neuralEvaluator n) {
+		network = n;
+		clearCaches();
+		for(searchThread s : searchers) s.evals = null;
+		if(splitters != null) for(searchThread s : splitters) s.evals = null;
+	}
+	
+	//Forgets the scores and pawn structures the evaluation has kept, so the next search works every one of them out again
+	public void clearCaches() {
+		Arrays.fill(evalCache, 0);
+		Arrays.fill(pawnCache, 0);
 	}
 	
 	public String getBestMove(ChessGame currentState) {
-		int depth = 8;
-		ChessGame game = new ChessGame(currentState.getBoard(), currentState.whitesMove());
-		pair p = max(depth, game, new pair(Double.MIN_VALUE, Double.MAX_VALUE, null), 5, numberOfMoves);
+		return getBestMove(currentState, SearchLimits.depth(8));
+	}
+	
+	//Iterative deepening, searches depth 1, 2, 3... until the limits run out and returns the best move of the last depth that finished
+	//With more than one thread the helpers search alongside the main thread and the main thread's move is the one played
+	public String getBestMove(ChessGame currentState, SearchLimits limits) {
+		if(book != null) {
+			int move = book.probe(currentState);
+			if(move != 0) {
+				nodes = 0;
+				numberOfMoves++;
+				return currentState.moveToString(move);
+			}
+		}
+		if(endgames != null) {
+			int move = endgames.bestMove(currentState); //Only for won and lost endings, a drawn one is left to the search
+			if(move != 0) {
+				nodes = 0;
+				numberOfMoves++;
+				return currentState.moveToString(move);
+			}
+		}
+		long start = System.currentTimeMillis();
+		table.newSearch();
+		nodeLimit = limits.nodes;
+		deadline = limits.millis > 0 ? start + limits.millis : Long.MAX_VALUE;
+		stopped = false;
+		for(searchThread s : searchers) s.reset(currentState);
+		if(splitters != null) {
+			for(searchThread s : splitters) {
+				s.table.newSearch();
+				s.reset(currentState);
+			}
+		}
+		Future<?>[] running = new Future<?>[searchers.length - 1];
+		for(int i = 1; i < searchers.length; i++) {
+			searchThread s = searchers[i];
+			running[i-1] = helpers.submit(() -> s.iterate(limits, start));
+		}
+		searchers[0].iterate(limits, start);
+		stopped = true;
+		for(Future<?> f : running) {
+			try {
+				f.get();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		nodes = 0;
+		for(searchThread s : searchers) nodes += s.nodes;
+		if(splitters != null) for(searchThread s : splitters) nodes += s.nodes;
 		numberOfMoves++;
-		return p.move;
-	}
-	
-	pair max(int depth, ChessGame currentState, pair p, int moveCounter, int moveCount) {
-		if(depth == 0) return new pair(value(currentState, moveCount), Double.MIN_VALUE, ""); //Terminal state
-		else depth -= 1; //Decrease depth for later searching
-		if(currentState.getGameOver()) return new pair(currentState.inCheck() * 100000000, p.beta, ""); //Terminal state for checkmate
-		pair pa = new pair(p.alpha, p.beta, null);
-		String[] moves;
-		if(white) moves = currentState.whiteMoves().toArray(new String[0]); //Finds the list of moves depending on black or white
-		else moves = currentState.blackMoves().toArray(new String[0]);
-		PriorityQueue<movePair> pq = new PriorityQueue<>(); //Used to find the top moveCounter amount of moves
-		for(String s : moves) {
-			ChessGame nextGame = new ChessGame(currentState.getBoard(), white);
-		    nextGame.move(s);
-		    double a = value(nextGame, moveCount);
-		    pq.add(new movePair(s, a, nextGame));
-		}
-		int length = pq.size();
-		for(int i = 0; i < length; i++) { //Basic implementation of minimax with alpha beta pruning
-			movePair s = pq.remove();
-			if (pa.move == null) pa.move = s.move;
-			if(i == moveCounter) break;
-			double a = min(depth, s.getGame(), pa, moveCounter, moveCount+1).beta;
-			if(a > pa.alpha) {
-				pa.move = s.move;
-				pa.alpha = a;
+		int move = searchers[0].rootMove;
+		if(move == 0) return null;
+		return currentState.moveToString(move);
+	}
+	
+	//Everything one search thread needs for itself. Only the table and the limits are shared
+	class searchThread {
+		int id; //0 is the main thread
+		transpositionTable table = chessAI.this.table; //Split threads get their own
+		ChessGame game; //The search makes and unmakes moves on this one copy
+		long nodes;
+		boolean canStop; //The first iteration of the main thread always finishes so there is a move to return
+		int rootMove; //Best move from the last finished iteration, searched first in the next one
+		int rootBest; //Best move found so far by the iteration that is running
+		int rootScore; //Score of rootMove, the next iteration opens its window around it
+		
+		//One move list per ply so the search never has to allocate one. The scores are used to order the moves
+		int[][] moveLists = new int[MAX_PLY][256];
+		int[][] moveScores = new int[MAX_PLY][256];
+		
+		//Quiet moves that caused a cutoff. Killers are the last two at each ply, history is by side, from and to square
+		int[][] killers = new int[MAX_PLY][2];
+		int[][][] history = new int[2][64][64];
+		
+		neuralEvaluator.queue evals; //Batches and cached scores from the network, only made when there is one
+		
+		searchThread(int id) {
+			this.id = id;
+		}
+		
+		void reset(ChessGame currentState) {
+			game = new ChessGame(currentState);
+			game.useNnue(nnue); //The accumulators are kept up to date on this copy as the search makes and unmakes moves
+			nodes = 0;
+			canStop = id != 0;
+			rootMove = 0;
+			rootScore = 0;
+			for(int[] k : killers) Arrays.fill(k, 0);
+			for(int[][] side : history) for(int[] from : side) Arrays.fill(from, 0);
+			if(network != null && evals == null) evals = network.new queue();
+		}
+		
+		//Odd helpers start one ply deeper so the threads are spread over two depths instead of all doing the same work
+		//From depth 4 each iteration starts with a narrow window around the last score. If the score lands outside it
+		//the window is widened on that side and the depth is searched again
+		void iterate(SearchLimits limits, long start) {
+			for(int depth = 1 + (id & 1); depth <= limits.depth; depth++) {
+				int delta = ASPIRATION;
+				int alpha = depth >= 4 ? Math.max(rootScore - delta, -INFINITE) : -INFINITE;
+				int beta = depth >= 4 ? Math.min(rootScore + delta, INFINITE) : INFINITE;
+				int score;
+				while(true) {
+					rootBest = 0;
+					score = search(depth, game, alpha, beta, false, numberOfMoves);
+					if(stopped) break;
+					if(score <= alpha) alpha = Math.max(score - delta, -INFINITE);
+					else if(score >= beta) {
+						beta = Math.min(score + delta, INFINITE);
+						if(rootBest != 0) rootMove = rootBest; //A move that fails high is at least as good as the old one
+					}
+					else break;
+					delta *= 2;
+				}
+				if(stopped) break;
+				rootMove = rootBest;
+				rootScore = score;
+				canStop = true;
+				//The next depth takes longer than all of the ones before it, so do not start one that can not finish
+				if(id == 0 && limits.millis > 0 && (System.currentTimeMillis() - start) * 2 > limits.millis) break;
+			}
+		}
+		
+		//Counts the node and checks the limits every so often so a search can be stopped part way through
+		//Only the main thread and the split threads check the limits, the Lazy SMP helpers just wait for the main thread to say stop
+		boolean outOfTime() {
+			nodes++;
+			if(!canStop) return false;
+			if((id == 0 || splitters != null) && !stopped) {
+				if(nodeLimit > 0 && nodes >= nodeLimit) stopped = true;
+				else if((nodes & 1023) == 0 && System.currentTimeMillis() >= deadline) stopped = true;
+			}
+			return stopped;
+		}
+		
+		//Negamax with principal variation search. Scores are in centipawns for the side to move, so one function does both sides.
+		//The first move gets the full window and every other move a window of one, which only has to show the move is no better.
+		//A move that is better is searched again with the full window
+		//nullMove is true when the move into this node was a pass, so two passes are never made in a row
+		int search(int depth, ChessGame currentState, int alpha, int beta, boolean nullMove, int moveCount) {
+			if(depth <= 0) return quiesce(currentState, alpha, beta, moveCount); //Terminal state once the captures are done
+			if(outOfTime()) return 0;
+			int ply = moveCount - numberOfMoves;
+			boolean root = ply == 0;
+			if(ply >= MAX_PLY - 1) return evaluate(currentState, moveCount);
+			long key = currentState.getKey();
+			long entry = table.probe(key);
+			if(entry != 0 && transpositionTable.depth(entry) >= depth && !root) { //Never cut at the root, it has to return a move
+				int score = fromTable(transpositionTable.score(entry), ply);
+				int bound = transpositionTable.bound(entry);
+				if(bound == transpositionTable.EXACT || (bound == transpositionTable.LOWER && score >= beta) || (bound == transpositionTable.UPPER && score <= alpha)) {
+					return score;
+				}
+			}
+			//Endings in the tables score as won, drawn or lost, kept in the table at full depth so they are only looked up once.
+			//Wins the fifty move rule would draw are only just better than a draw
+			if(!root && endgames != null) {
+				int wdl = endgames.probe(currentState);
+				if(wdl != endgameTable.UNKNOWN) {
+					int score = wdl == endgameTable.WIN ? TB_WIN - ply : wdl == endgameTable.LOSS ? -TB_WIN + ply : wdl;
+					store(key, 0, MAX_PLY, score, ply, -INFINITE, INFINITE);
+					return score;
+				}
+			}
+			int hashMove = entry != 0 ? transpositionTable.move(entry) : 0;
+			if(root && rootMove != 0) hashMove = rootMove;
+			boolean inCheck = currentState.inCheck() != 0;
+			boolean pv = beta - alpha > 1;
+			//Null move, the other side gets to move twice. If this side is still at beta the real moves would be too
+			//Not when this side has only pawns left, since then passing can be better than every move there is
+			if(!root && !pv && !nullMove && !inCheck && depth >= 3 && currentState.hasPieces(currentState.whitesMove()) && evaluate(currentState, moveCount) >= beta) {
+				currentState.makeNullMove();
+				int score = -search(depth - 1 - nullReduction(depth), currentState, -beta, -beta + 1, true, moveCount+1);
+				currentState.unmakeNullMove();
+				if(stopped) return 0;
+				if(score >= beta) return score >= TB_BOUND ? beta : score; //A mate or table win found after passing is not a real one
+			}
+			int[] moves = moveLists[ply];
+			int[] scores = moveScores[ply];
+			int length = currentState.legalMoves(moves);
+			if(length == 0) return inCheck ? -MATE + ply : 0; //Checkmate, or stalemate which is a draw
+			scoreMoves(currentState, moves, scores, length, hashMove, ply);
+			if(evals != null && depth == 1) queueChildren(currentState, moves, length, Integer.MIN_VALUE); //Every child goes straight to quiesce, which scores it first
+			int original = alpha;
+			int best = -INFINITE;
+			int bestMove = 0;
+			boolean split = splitters != null && id == 0 && pv && depth >= SPLIT_DEPTH; //Only the main thread walks the PV, the split threads never split
+			splitTask[] group = null;
+			for(int i = 0; i < length; i++) {
+				int m;
+				int score;
+				if(split && i > 0) {
+					if((i - 1) % splitters.length == 0) group = splitGroup(currentState, moves, scores, i, length, depth, alpha, beta, inCheck, moveCount);
+					splitTask t = group[(i - 1) % splitters.length];
+					m = t.move;
+					score = t.join();
+				}
+				else {
+					m = pickMove(moves, scores, i, length);
+					currentState.makeMove(m);
+					if(i == 0) score = -search(depth - 1, currentState, -beta, -alpha, false, moveCount+1);
+					else score = youngBrother(currentState, m, i, depth, alpha, beta, inCheck, moveCount);
+					currentState.unmakeMove();
+				}
+				if(stopped) return 0;
+				if(score > best) {
+					best = score;
+					bestMove = m;
+					if(score > alpha) {
+						alpha = score;
+						if(root) rootBest = m;
+						if(alpha >= beta) {
+							cutoff(currentState, m, ply, depth);
+							break;
+						}
+					}
+				}
+			}
+			store(key, bestMove, depth, best, ply, original, beta);
+			return best;
+		}
+		
+		//Quiescence search. Only captures and promotions are searched so a position is never scored in the middle of a trade
+		//Standing pat is the score of making none of them. A capture that can not get back up to alpha even after winning the piece is skipped
+		int quiesce(ChessGame currentState, int alpha, int beta, int moveCount) {
+			int stand = evaluate(currentState, moveCount);
+			if(outOfTime() || stand >= beta) return stand;
+			if(stand > alpha) alpha = stand;
+			int ply = moveCount - numberOfMoves;
+			if(ply >= MAX_PLY) return alpha;
+			int[] moves = moveLists[ply];
+			int[] scores = moveScores[ply];
+			int length = scoreCaptures(currentState, moves, scores);
+			if(evals != null) queueChildren(currentState, moves, length, alpha - stand - DELTA_MARGIN);
+			for(int i = 0; i < length; i++) {
+				int m = pickMove(moves, scores, i, length);
+				if(stand + gain(currentState, m) + DELTA_MARGIN <= alpha) continue;
+				currentState.makeMove(m);
+				int score = -quiesce(currentState, -beta, -alpha, moveCount+1);
+				currentState.unmakeMove();
+				if(stopped) return alpha;
+				if(score > alpha) alpha = score;
+				if(alpha >= beta) break;
 			}
-			if(pa.alpha >= pa.beta) return pa;
-		}
-		return pa;
-	}
-	//Same as max but flipped to find minimum
-	pair min(int depth, ChessGame currentState, pair p, int moveCounter, int moveCount) {
-		if(depth == 0) return new pair(p.alpha, value(currentState, moveCount), "");
-		else depth -= 1;
-		pair pa = new pair(p.alpha, p.beta, null);
-		String[] moves;
-		if(white) moves = currentState.whiteMoves().toArray(new String[0]);
-		else moves = currentState.blackMoves().toArray(new String[0]);
-		PriorityQueue<movePair> pq = new PriorityQueue<>(Collections.reverseOrder());
-		for(String s : moves) {
-			ChessGame nextGame = new ChessGame(currentState.getBoard(), white);
-		    nextGame.move(s);
-		    double a = value(nextGame, moveCount);
-		    pq.add(new movePair(s, a, nextGame));
-		}
-		int length = pq.size();
-		for(int i = 0; i < length; i++) {
-			movePair s = pq.remove();
-			if (pa.move == null) pa.move = s.move;
-			if(i == moveCounter) break;
-			double b = max(depth, s.getGame(), pa, moveCounter, moveCount+1).alpha;
-			if(b < pa.beta) {
-				pa.beta = b;
+			return alpha;
+		}
+		
+		//The static score in centipawns for the side to move. value is always from this AI's side, the network is from white's
+		int evaluate(ChessGame currentState, int moveCount) {
+			if(nnue != null) return Math.max(-TB_BOUND + 1, Math.min(TB_BOUND - 1, currentState.nnueScore()));
+			double value = evals != null ? (white ? 1 : -1) * evals.score(currentState) : value(currentState, moveCount);
+			if(Double.isNaN(value)) value = evaluateBoard(currentState, moveCount); //A remote network that did not answer
+			int score = (int)Math.max(-TB_BOUND + 1, Math.min(TB_BOUND - 1, Math.round(value)));
+			return currentState.whitesMove() == white ? score : -score;
+		}
+		
+		//Fills the list with the captures and promotions, most valuable victim first and the cheapest attacker first when the victims match
+		int scoreCaptures(ChessGame currentState, int[] moves, int[] scores) {
+			int length = currentState.captures(moves);
+			for(int i = 0; i < length; i++) {
+				scores[i] = gain(currentState, moves[i]) * 8 - ChessGame.type(currentState.piece(ChessGame.from(moves[i])));
+			}
+			return length;
+		}
+		
+		//Saves a searched node. The bound comes from where the score landed compared to the window the node was given
+		void store(long key, int move, int depth, int score, int ply, int alpha, int beta) {
+			int bound = transpositionTable.EXACT;
+			if(score >= beta) bound = transpositionTable.LOWER;
+			else if(score <= alpha) bound = transpositionTable.UPPER;
+			table.store(key, move, depth, toTable(score, ply), bound);
+		}
+		
+		//Queues the positions the moves lead to and runs them through the network together, so the nodes below
+		//find their score in the cache instead of running the network one board at a time. Moves that can not win more than skip are left out
+		void queueChildren(ChessGame currentState, int[] moves, int length, int skip) {
+			for(int i = 0; i < length; i++) {
+				if(skip != Integer.MIN_VALUE && gain(currentState, moves[i]) <= skip) continue;
+				currentState.makeMove(moves[i]);
+				evals.add(currentState);
+				currentState.unmakeMove();
+			}
+			evals.flush();
+		}
+		
+		//Orders the moves without making any of them, best for the side to move first. The order is
+		//the move from the table, then captures and promotions by what they win, then the killers, then the other quiet moves by history
+		void scoreMoves(ChessGame currentState, int[] moves, int[] scores, int length, int hashMove, int ply) {
+			int[][] butterfly = history[currentState.whitesMove() ? 0 : 1];
+			for(int i = 0; i < length; i++) {
+				int m = moves[i];
+				if(m == hashMove) scores[i] = HASH_MOVE;
+				else if(ChessGame.isCapture(m) || ChessGame.promotion(m) != 0) scores[i] = CAPTURES + gain(currentState, m) * 8 - ChessGame.type(currentState.piece(ChessGame.from(m)));
+				else if(m == killers[ply][0]) scores[i] = KILLERS + 1;
+				else if(m == killers[ply][1]) scores[i] = KILLERS;
+				else scores[i] = butterfly[ChessGame.from(m)][ChessGame.to(m)];
 			}
-			if(pa.alpha >= pa.beta) return pa;
 		}
-		return pa;
+		
+		//How many plies to take off a late quiet move, which is searched with a window of one and searched again if it beats it
+		//Captures, promotions, killers, checks and moves out of check are never reduced. The move has already been made
+		int reduction(int depth, int i, int move, int ply, boolean inCheck, ChessGame afterMove) {
+			if(depth < 3 || i < 3 || inCheck || ChessGame.isCapture(move) || ChessGame.promotion(move) != 0) return 0;
+			if(move == killers[ply][0] || move == killers[ply][1] || afterMove.inCheck() != 0) return 0;
+			return Math.min(LMR[Math.min(depth, 63)][Math.min(i, 255)], depth - 2);
+		}
+		
+		//Bigger null move reductions the deeper the node is
+		int nullReduction(int depth) {
+			return 2 + depth / 4;
+		}
+		
+		//A quiet move that caused a cutoff becomes a killer for this ply and gets history. Deeper cutoffs count for more
+		void cutoff(ChessGame currentState, int move, int ply, int depth) {
+			if(ChessGame.isCapture(move) || ChessGame.promotion(move) != 0) return;
+			if(killers[ply][0] != move) {
+				killers[ply][1] = killers[ply][0];
+				killers[ply][0] = move;
+			}
+			int[][] butterfly = history[currentState.whitesMove() ? 0 : 1];
+			butterfly[ChessGame.from(move)][ChessGame.to(move)] += depth * depth;
+			if(butterfly[ChessGame.from(move)][ChessGame.to(move)] >= HISTORY_LIMIT) { //Halve it all so history stays below the killers
+				for(int[] from : butterfly) for(int to = 0; to < 64; to++) from[to] /= 2;
+			}
+		}
+		
+		//Every move after the first one. It only has to show it is no better than alpha, so it gets a window of one and may be reduced.
+		//If it beats alpha anyway it is searched again at full depth and then with the full window. The move has already been made
+		int youngBrother(ChessGame afterMove, int move, int i, int depth, int alpha, int beta, boolean inCheck, int moveCount) {
+			int ply = moveCount - numberOfMoves;
+			int r = reduction(depth, i, move, ply, inCheck, afterMove);
+			int score = -search(depth - 1 - r, afterMove, -alpha - 1, -alpha, false, moveCount+1);
+			if(score > alpha && r > 0 && !stopped) score = -search(depth - 1, afterMove, -alpha - 1, -alpha, false, moveCount+1); //The reduced search beat alpha, so try it at full depth
+			if(score > alpha && score < beta && !stopped) score = -search(depth - 1, afterMove, -beta, -alpha, false, moveCount+1);
+			return score;
+		}
+		
+		//Hands the next moves in order from i on to the split threads, one each, and waits for all of them. The whole group gets the alpha
+		//the node has when it is handed out. Alpha only rises once every brother in the group is back, as search reads their scores in move order,
+		//so the split threads never see each other's bounds and what they search does not depend on which of them finishes first
+		splitTask[] splitGroup(ChessGame node, int[] moves, int[] scores, int i, int length, int depth, int alpha, int beta, boolean inCheck, int moveCount) {
+			splitTask[] group = new splitTask[Math.min(splitters.length, length - i)];
+			for(int k = 0; k < group.length; k++) {
+				group[k] = new splitTask(splitters[k], node, pickMove(moves, scores, i + k, length), i + k, depth, alpha, beta, inCheck, moveCount, canStop);
+			}
+			splitPool.invoke(new RecursiveAction() {
+				protected void compute() {
+					ForkJoinTask.invokeAll(group);
+				}
+			});
+			return group;
+		}
 	}
-	//Will find the value of the board includes the communication between server.py
+	
+	//One young brother of a PV node, searched by a split thread on its own copy of the node
+	@SuppressWarnings("serial")
+	class splitTask extends RecursiveTask<Integer> {
+		searchThread searcher;
+		ChessGame node;
+		int move;
+		int i;
+		int depth;
+		int alpha;
+		int beta;
+		boolean inCheck;
+		int moveCount;
+		boolean canStop;
+		
+		splitTask(searchThread searcher, ChessGame node, int move, int i, int depth, int alpha, int beta, boolean inCheck, int moveCount, boolean canStop) {
+			this.searcher = searcher;
+			this.node = node;
+			this.move = move;
+			this.i = i;
+			this.depth = depth;
+			this.alpha = alpha;
+			this.beta = beta;
+			this.inCheck = inCheck;
+			this.moveCount = moveCount;
+			this.canStop = canStop;
+		}
+		
+		protected Integer compute() {
+			searcher.canStop = canStop;
+			searcher.game = new ChessGame(node); //The main thread waits for the group, so nothing changes the node while it is copied
+			searcher.game.makeMove(move);
+			return searcher.youngBrother(searcher.game, move, i, depth, alpha, beta, inCheck, moveCount);
+		}
+	}
+	
+	//Mate and table win scores are stored as distance from the node instead of from the root, so they stay right when the position is reached at another ply
+	static int toTable(int score, int ply) {
+		if(score >= TB_BOUND) return score + ply;
+		if(score <= -TB_BOUND) return score - ply;
+		return score;
+	}
+	
+	static int fromTable(int score, int ply) {
+		if(score >= TB_BOUND) return score - ply;
+		if(score <= -TB_BOUND) return score + ply;
+		return score;
+	}
+	
+	//How much material the move wins, in the same units as evaluateBoard
+	static int gain(ChessGame game, int move) {
+		int g = 0;
+		if(ChessGame.isCapture(move)) {
+			int captured = game.piece(ChessGame.to(move));
+			g = (captured == 0 ? pieceValues[ChessGame.PAWN] : pieceValues[ChessGame.type(captured)]) * 100; //An empty square is en passant
+		}
+		if(ChessGame.promotion(move) != 0) g += (pieceValues[ChessGame.promotion(move)] - 1) * 100;
+		return g;
+	}
+	
+	//Swaps the best scoring move left in the list into spot i and returns it, so moves are only sorted as far as the search gets
+	static int pickMove(int[] moves, int[] scores, int i, int length) {
+		int best = i;
+		for(int j = i+1; j < length; j++) {
+			if(scores[j] > scores[best]) best = j;
+		}
+		int m = moves[best];
+		int s = scores[best];
+		moves[best] = moves[i];
+		scores[best] = scores[i];
+		moves[i] = m;
+		scores[i] = s;
+		return m;
+	}
+	
+	//Will find the value of the board, from the network when there is one and it gives a score
 	public double value(ChessGame currentState, int moveCount) {
-		/*
-        String json = gson.toJson(new InputData(currentState.getBoard()));
-
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create("http://localhost:5000/predict"))
-            .header("Content-Type", "application/json")
-            .POST(BodyPublishers.ofString(json))
-            .build();
-        HttpResponse<String> response = null;
-        try {
-            response = client.send(request, BodyHandlers.ofString());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-		return Double.parseDouble(response.body().substring(9, 20));
-		*/
-		return evaluateBoard(currentState.getBoard(), currentState, moveCount);
+		long key = currentState.getKey() ^ PHASE_KEYS[phase(moveCount)];
+		int slot = ((int)key & (EVAL_SLOTS - 1)) * 2;
+		long bits = evalCache[slot + 1];
+		if((evalCache[slot] ^ bits) == key) return Double.longBitsToDouble(bits);
+		double score = network != null ? network.score(currentState) : Double.NaN;
+		if(!Double.isNaN(score)) score = white ? score : -score;
+		else if(network != null) return evaluateBoard(currentState, moveCount); //A remote network that did not answer, try it again next time
+		else score = evaluateBoard(currentState, moveCount);
+		bits = Double.doubleToRawLongBits(score);
+		evalCache[slot] = key ^ bits;
+		evalCache[slot + 1] = bits;
+		return score;
+	}
+	
+	//The opening, middle game and ending as pawnStructure splits them
+	static int phase(int moveCount) {
+		return moveCount < 5 ? 0 : moveCount > 40 ? 2 : 1;
 	}
 	//Basic heuristic meant to call the other types of evaluation methods to help apply weights and further tweaking to the final value
-	 double evaluateBoard(int[] board, ChessGame game, int moveCount){
+	 double evaluateBoard(ChessGame game, int moveCount){
 		double value = 1;
-		value += valueOfPieces(board) * 100;
-		value += pawnStructure(board, moveCount);
+		value += valueOfPieces(game) * 100;
+		value += pawns(game, moveCount);
 		//value += inCheck(game) * 5;
-		value += knightValue(board);
-		value += bishopValue(board) * 1;
-		value += rookValue(board) * 1;
-		value += queenValue(board) * 3;
-		value += kingValue(board) * 100;
+		value += knightValue(game);
+		value += bishopValue(game) * 1;
+		value += rookValue(game) * 1;
+		value += queenValue(game) * 3;
+		value += kingValue(game) * 100;
 		//value += attackingValue(game);
 		if(white) return value;
 		else return value * -1;
@@ -188,15 +624,13 @@ public class chessAI {
 	/*
 	 * Everything below has to do with evaluation and is pretty well defined via the name of the function
 	 * I am not going to comment what each does, as I believe it is reasonable to assume anyone can figure it out by the name.
+	 * The piece square parts are kept as running totals by ChessGame, so only the parts that depend on other pieces are worked out here.
 	 */
+	
+	static final int[] pieceValues = {0, 1, 3, 3, 5, 9, 0}; //Value of the pieces by type
 	 
-	static double valueOfPieces(int[] board) {
-		double value = 0;
-		int[] a = {0, 1, -1, 3, -3, 3, -3, 5, -5, 9, -9, 0, 0}; //Value of the pieces
-		for(int i = 0; i < 64; i++) {
-			value += a[board[i]];
-		}
-		return value;
+	static double valueOfPieces(ChessGame game) {
+		return game.material();
 	}
 	
 	static final int[] pawnMapBeggining = {
@@ -221,69 +655,95 @@ public class chessAI {
 			0, 0, 0, 0, 0, 0, 0, 0
 	};
 	
-	static double pawnStructure(int[] board, int moveCount) {
-		double value = 0;
+	static final int DOUBLED = 15; //For every pawn past the first on a file
+	static final int ISOLATED = 10; //For every pawn with none of its own pawns on the files next to it
+	static final int[] passedBonus = {0, 5, 10, 20, 35, 60, 100, 0}; //By rank counted from the pawn's own side
+	static final long[] adjacentFiles = new long[8];
+	static final long[][] passedMasks = new long[2][64]; //The squares in front of a pawn on its file and the files next to it, [0] for white
+	static {
+		for(int file = 0; file < 8; file++) {
+			if(file > 0) adjacentFiles[file] |= ChessGame.FILE_A << (file - 1);
+			if(file < 7) adjacentFiles[file] |= ChessGame.FILE_A << (file + 1);
+		}
+		for(int sq = 0; sq < 64; sq++) {
+			long files = adjacentFiles[sq%8] | ChessGame.FILE_A << (sq%8);
+			passedMasks[0][sq] = sq < 56 ? files & (-1L << (sq/8*8 + 8)) : 0;
+			passedMasks[1][sq] = sq >= 8 ? files & ((1L << (sq/8*8)) - 1) : 0;
+		}
+	}
+	
+	//pawnStructure through the pawn hash. The score only changes when the pawns or the phase do, so most positions find it here
+	double pawns(ChessGame game, int moveCount) {
+		long key = game.pawnKey() ^ PHASE_KEYS[phase(moveCount)];
+		int slot = ((int)key & (PAWN_SLOTS - 1)) * 2;
+		long bits = pawnCache[slot + 1];
+		if((pawnCache[slot] ^ bits) == key) return Double.longBitsToDouble(bits);
+		double score = pawnStructure(game, moveCount);
+		bits = Double.doubleToRawLongBits(score);
+		pawnCache[slot] = key ^ bits;
+		pawnCache[slot + 1] = bits;
+		return score;
+	}
+	
+	static double pawnStructure(ChessGame game, int moveCount) {
+		long white = game.pieces(ChessGame.code(ChessGame.PAWN, true));
+		long black = game.pieces(ChessGame.code(ChessGame.PAWN, false));
+		double value = structure(white, black, true) - structure(black, white, false);
 		if(moveCount < 5) {
-			for(int i = 0; i < 64; i++) {
-				if(board[i] == 1) {
-					value += pawnMapBeggining[i];
-					if(i+9 >= 64) continue;
-					if(board[i+7] == 1) value += 3;
-					if(board[i+9] == 1) value += 3;
-					if(board[i+7] == 2) value -= 3;
-					if(board[i+9] == 2) value -= 3;
-				}
-				else if(board[i] == 2) {
-					value -= pawnMapBeggining[i];
-					if(i-9 < 0) continue;
-					if(board[i-7] == 2) value -= 3;
-					if(board[i-9] == 2) value -= 3;
-					if(board[i-7] == 2) value += 3;
-					if(board[i-9] == 2) value += 3;
-				}
-			}
+			//White pawns get 3 for every white pawn 7 or 9 squares ahead and lose 3 for every black one. Only pawns below square 55 are counted
+			long counted = (1L << 55) - 1;
+			int neighbours = Long.bitCount(white & (white >>> 7) & counted) + Long.bitCount(white & (white >>> 9) & counted);
+			neighbours -= Long.bitCount(white & (black >>> 7) & counted) + Long.bitCount(white & (black >>> 9) & counted);
+			return value + game.pawnOpening() + neighbours * 3;
 		}
 		else if(moveCount > 40) {
-			for(int i = 0; i < 64; i++) {
-				if(board[i] == 1) {
-					value += pawnMapEnding[i];
-				}
-				else if(board[i] == 2) {
-					value -= pawnMapEnding[i];
-				}
-			}
-		}else {
-			int chainLeft = 1;
-			int chainRight = 1;
-			for(int i = 0; i < 64; i++) {
-				if(board[i] == 1) {
-					for(int j = 7; i-j >= 0; j+=7) {
-						if(board[i-j] == 1) chainRight++;
-						else break;
-					}
-					for(int j = 9; i-j >= 0; j+=9) {
-						if(board[i-j] == 1) chainLeft++;
-						else break;
-					}
-					value+= chainLeft * chainRight;
-				}else if (board[i] == 2) {
-					for(int j = 7; i+j < 64; j+=7) {
-						if(board[i+j] == 2) chainRight++;
-						else break;
-					}
-					for(int j = 9; i+j < 64; j+=9) {
-						if(board[i+j] == 2) chainLeft++;
-						else break;
-					}
-					value+= chainLeft * chainRight;
-				}
-				chainLeft = 1;
-				chainRight = 1;
-			}
+			return value + game.pawnEnding();
+		}
+		return value + chains(white, true) + chains(black, false); //Both sides' chains add to the score, like the old nested loops did
+	}
+	
+	//Doubled, isolated and passed pawns for one side
+	static int structure(long pawns, long enemy, boolean white) {
+		int value = 0;
+		for(int file = 0; file < 8; file++) {
+			long onFile = pawns & (ChessGame.FILE_A << file);
+			if(onFile == 0) continue;
+			int count = Long.bitCount(onFile);
+			value -= (count - 1) * DOUBLED;
+			if((pawns & adjacentFiles[file]) == 0) value -= count * ISOLATED;
+		}
+		long b = pawns;
+		while(b != 0) {
+			int sq = Long.numberOfTrailingZeros(b);
+			b &= b-1;
+			if((enemy & passedMasks[white ? 0 : 1][sq]) == 0) value += passedBonus[white ? sq/8 : 7 - sq/8];
 		}
 		return value;
 	}
 	
+	//Every pawn scores (1 + pawns in a row behind it 7 squares apart) * (1 + pawns in a row behind it 9 squares apart).
+	//The pawns with at least j behind them one way are the pawns and the pawns shifted 7, 14 ... 7j, and the same for 9,
+	//so adding up the pawns in both groups for every j and k gives the same sum without walking each chain
+	static int chains(long pawns, boolean white) {
+		int sum = 0;
+		long a = pawns;
+		for(int j = 1; a != 0; j++) {
+			long b = a;
+			for(int k = 1; b != 0; k++) {
+				sum += Long.bitCount(b);
+				b &= behind(pawns, 9 * k, white);
+			}
+			a &= behind(pawns, 7 * j, white);
+		}
+		return sum;
+	}
+	
+	//The pawns moved n squares up the board for white or down for black, which puts each one on the square n in front of it
+	private static long behind(long pawns, int n, boolean white) {
+		if(n >= 64) return 0;
+		return white ? pawns << n : pawns >>> n;
+	}
+	
 	static double inCheck(ChessGame game) {
 		double value = 0;
 		value = game.inCheck();
@@ -301,90 +761,36 @@ public class chessAI {
 			-1,-3,-1,-1,-1,-1,-3,-1
 	};
 	
-	static double knightValue(int[] board) {
-		double value = 0;
-		for(int i = 0; i < 64; i++) {
-			if(board[i] == 3) value += knightMapping[i];
-			else if(board[i] == 4) value -= knightMapping[i];
-		}
-		return value;
+	static double knightValue(ChessGame game) {
+		return game.knightSquares();
 	}
 	
-	
-	
-	static double bishopValue(int[] board) {
-		double value = 0;
-		for(int i = 0; i < 64; i++) {
-			if(board[i] == 5) {
-				value += lineOfSightBishop(board, i/8, i%8);
-			}else if(board[i] == 6) {
-				value -= lineOfSightBishop(board, i/8, i%8);
-			}
-		}
-		return value;
+	static double bishopValue(ChessGame game) {
+		return mobility(game, ChessGame.BISHOP);
 	}
 	
-	static double rookValue(int[] board) {
-		double value = 0;
-		for(int i = 0; i < 64; i++) {
-			if(board[i] == 7) {
-				value += lineOfSightRook(board, i/8, i%8);
-			}else if(board[i] == 8) {
-				value -= lineOfSightRook(board, i/8, i%8);
-			}
-		}
-		return value;
-	}
-	
-	static double queenValue(int[] board) {
-		double value = 0;
-		for(int i = 0; i < 64; i++) {
-			if(board[i] == 9) {
-				value += lineOfSightQueen(board, i/8, i%8);
-			}else if(board[i] == 10) {
-				value -= lineOfSightQueen(board, i/8, i%8);
-			}
-		}
-		return value;
-	}
-	
-	static int lineOfSightQueen(int[] board, int row, int col) {
-		int spaces = 0;
-		int[][] directions = {{1,0},{1,1},{1,-1},{-1,0},{-1,1},{-1,-1},{0,1},{0,-1}};
-		for(int[] dir : directions) {
-			int dis = 1;
-			while((row+dir[0]*dis) >= 0 && (row+dir[0]*dis) <= 7 && (col+dir[1]*dis) >= 0 && (col+dir[1]*dis) <= 7) {
-				if(board[(row+dir[0]*dis)*8 + (col+dir[1]*dis)] != 0) break;
-				spaces++;
-				dis++;
-			}
-		}
-		return spaces;
+	static double rookValue(ChessGame game) {
+		return mobility(game, ChessGame.ROOK);
 	}
 	
-	static int lineOfSightBishop(int[] board, int row, int col) {
-		int spaces = 0;
-		int[][] directions = {{1,1},{1,-1},{-1,1},{-1,-1}};
-		for(int[] dir : directions) {
-			int dis = 1;
-			while((row+dir[0]*dis) >= 0 && (row+dir[0]*dis) <= 7 && (col+dir[1]*dis) >= 0 && (col+dir[1]*dis) <= 7) {
-				if(board[(row+dir[0]*dis)*8 + (col+dir[1]*dis)] != 0) break;
-				spaces++;
-				dis++;
-			}
-		}
-		return spaces;
+	static double queenValue(ChessGame game) {
+		return mobility(game, ChessGame.QUEEN);
 	}
 	
-	static int lineOfSightRook(int[] board, int row, int col) {
+	//How many empty squares the pieces of this type can see, white minus black
+	static int mobility(ChessGame game, int type) {
+		long occupied = game.occupied();
 		int spaces = 0;
-		int[][] directions = {{1,0},{-1,0},{0,1},{0,-1}};
-		for(int[] dir : directions) {
-			int dis = 1;
-			while((row+dir[0]*dis) >= 0 && (row+dir[0]*dis) <= 7 && (col+dir[1]*dis) >= 0 && (col+dir[1]*dis) <= 7) {
-				if(board[(row+dir[0]*dis)*8 + (col+dir[1]*dis)] != 0) break;
-				spaces++;
-				dis++;
+		for(int side = 0; side < 2; side++) {
+			long b = game.pieces(ChessGame.code(type, side == 0));
+			while(b != 0) {
+				int sq = Long.numberOfTrailingZeros(b);
+				b &= b-1;
+				long attacks = 0;
+				if(type != ChessGame.ROOK) attacks |= ChessGame.bishopAttacks(sq, occupied);
+				if(type != ChessGame.BISHOP) attacks |= ChessGame.rookAttacks(sq, occupied);
+				int count = Long.bitCount(attacks & ~occupied);
+				spaces += side == 0 ? count : -count;
 			}
 		}
 		return spaces;
@@ -401,13 +807,8 @@ public class chessAI {
 			5, 5, 5, 5,-5,-5,-5, 5, 5, 5
 	};
 	
-	static double kingValue(int[] board) {
-		double value = 0;
-		for(int i = 0; i < 64; i++) {
-			if(board[i] == 11) value += knightMapping[i];
-			else if(board[i] == 12) value -= knightMapping[i];
-		}
-		return value;
+	static double kingValue(ChessGame game) {
+		return game.kingSquares();
 	}
 	
 	//This is the only one that may have an issue with understanding what it does. But just checks to see if you are attacking any peieces and the value of those pieces
@@ -18,6 +18,10 @@ public class chessTest {
 		ChessGame game = new ChessGame();
 		chessAI ai1 = new chessAI(true);
 		chessAI ai2 = new chessAI(false);
+		for(chessAI ai : new chessAI[] {ai1, ai2}) { //Both play from the book and the Syzygy tables in syzygy if they are in the working directory
+			ai.setBook("book.bin");
+			ai.setEndgames("syzygy");
+		}
 		String input = "";
 		int moves = 0;
 		while(!game.getGameOver()) {
@@ -0,0 +1,272 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * consistencyTest.java
+ * Plays random games and checks everything the board keeps up to date as pieces move against the same thing worked out from nothing.
+ * That is the Zobrist key and the pawn key, the material and piece square totals, the bitboards, the attack maps and, with a network,
+ * the NNUE accumulators. Every legal move is made and checked, then taken back and checked again against the position before it.
+ * The pawn terms of evaluateBoard are checked the same way against square by square versions of the loops they replaced,
+ * and the pawn hash is checked against pawnStructure.
+ * "java consistencyTest [games] [seed]" runs the check. Add "nnue" at the end to check the accumulators of a random network too,
+ * which needs --add-modules jdk.incubator.vector.
+ * Exits with 1 on the first difference, after printing the position and what differs, so it can be used in a build.
+ */
+
+public class consistencyTest {
+	static final int PLIES = 120; //Longest game played, most end before this
+
+	static int[] list = new int[256];
+	static long checked = 0;
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 20240419;
+		boolean nnue = args.length > 2 && args[2].equals("nnue");
+		Random random = new Random(seed);
+		chessAI ai = new chessAI(true, 1);
+		long start = System.nanoTime();
+		for(int g = 0; g < games; g++) {
+			ChessGame game = new ChessGame();
+			if(nnue) game.useNnue(randomNetwork(random));
+			check(game, "start");
+			int played = 0;
+			for(int ply = 0; ply < PLIES; ply++) {
+				int n = game.legalMoves(list);
+				if(n == 0) break;
+				int[] moves = Arrays.copyOf(list, n);
+				snapshot before = new snapshot(game.cb);
+				for(int m : moves) {
+					String name = game.moveToString(m);
+					game.makeMove(m);
+					check(game, "after " + name);
+					checkPawns(ai, game, ply);
+					game.unmakeMove();
+					compare(game, before, "after taking back " + name);
+				}
+				game.makeNullMove();
+				check(game, "after a null move");
+				game.unmakeNullMove();
+				compare(game, before, "after taking back a null move");
+				check(new ChessGame(game), "in a copy");
+				game.makeMove(moves[random.nextInt(n)]);
+				played++;
+			}
+			for(int i = 0; i < played; i++) game.unmakeMove();
+			check(game, "after taking back the whole game");
+		}
+		System.out.println("ok   " + games + " games, " + checked + " positions checked in " + (System.nanoTime() - start) / 1000000 + "ms");
+	}
+
+	//Fails if anything kept up to date is different from the same thing worked out from the squares
+	static void check(ChessGame game, String when) {
+		ChessGame.chessBoard cb = game.cb;
+		checked++;
+		long[] pieces = new long[13];
+		long white = 0, black = 0;
+		long key = ChessGame.zobristCastling[cb.castling];
+		long pawnKey = 0;
+		int material = 0, pawnOpening = 0, pawnEnding = 0, knightSquares = 0, kingSquares = 0;
+		for(int sq = 0; sq < 64; sq++) {
+			int code = cb.squares[sq];
+			if(code == 0) continue;
+			pieces[code] |= 1L << sq;
+			if(ChessGame.isWhite(code)) white |= 1L << sq;
+			else black |= 1L << sq;
+			key ^= ChessGame.zobristPieces[code][sq];
+			int type = ChessGame.type(code);
+			int sign = ChessGame.isWhite(code) ? 1 : -1;
+			material += sign * chessAI.pieceValues[type];
+			if(type == ChessGame.PAWN) {
+				pawnKey ^= ChessGame.zobristPieces[code][sq];
+				pawnOpening += sign * chessAI.pawnMapBeggining[sq];
+				pawnEnding += sign * chessAI.pawnMapEnding[sq];
+			}
+			else if(type == ChessGame.KNIGHT) knightSquares += sign * chessAI.knightMapping[sq];
+			else if(type == ChessGame.KING) kingSquares += sign * chessAI.knightMapping[sq];
+		}
+		if(cb.enPassant >= 0) key ^= ChessGame.zobristEnPassant[cb.enPassant%8];
+		if(!cb.whiteMove) key ^= ChessGame.zobristSide;
+		expect(game, when, "bitboards", Arrays.equals(pieces, cb.pieces) && white == cb.whitePieces && black == cb.blackPieces && (white | black) == cb.occupied);
+		expect(game, when, "Zobrist key", key == cb.key);
+		expect(game, when, "pawn key", pawnKey == cb.pawnKey);
+		expect(game, when, "material", material == cb.material);
+		expect(game, when, "pawn squares", pawnOpening == cb.pawnOpening && pawnEnding == cb.pawnEnding);
+		expect(game, when, "knight and king squares", knightSquares == cb.knightSquares && kingSquares == cb.kingSquares);
+		int[][] counts = new int[2][64];
+		for(int sq = 0; sq < 64; sq++) {
+			int code = cb.squares[sq];
+			long attacks = code == 0 ? 0 : attacks(code, sq, white | black);
+			expect(game, when, "attacks from " + sq, attacks == cb.attackSet[sq]);
+			for(long b = attacks; b != 0; b &= b-1) counts[ChessGame.isWhite(code) ? 0 : 1][Long.numberOfTrailingZeros(b)]++;
+		}
+		expect(game, when, "attack counts", Arrays.equals(counts[0], cb.attackCount[0]) && Arrays.equals(counts[1], cb.attackCount[1]));
+		if(cb.nnue != null) expect(game, when, "NNUE accumulators", Arrays.equals(cb.nnue.refresh(cb.squares), cb.accumulator));
+	}
+
+	//Fails if the pawn terms are different from the square by square versions, or the pawn hash gives something else
+	static void checkPawns(chessAI ai, ChessGame game, int ply) {
+		for(int moveCount : new int[] {ply, 0, 20, 60}) {
+			double expected = pawnStructure(game.cb.squares, moveCount);
+			expect(game, "at move count " + moveCount, "pawnStructure", chessAI.pawnStructure(game, moveCount) == expected);
+			expect(game, "at move count " + moveCount, "pawn hash", ai.pawns(game, moveCount) == expected);
+		}
+	}
+
+	//What the piece attacks, found by walking out from the square
+	static long attacks(int code, int sq, long occupied) {
+		int[][] steps;
+		boolean slides = false;
+		switch(ChessGame.type(code)) {
+		case ChessGame.PAWN:
+			steps = ChessGame.isWhite(code) ? new int[][] {{1,1},{1,-1}} : new int[][] {{-1,1},{-1,-1}};
+			break;
+		case ChessGame.KNIGHT:
+			steps = new int[][] {{2,1},{2,-1},{-2,1},{-2,-1},{1,2},{-1,2},{1,-2},{-1,-2}};
+			break;
+		case ChessGame.BISHOP:
+			steps = new int[][] {{1,1},{1,-1},{-1,1},{-1,-1}};
+			slides = true;
+			break;
+		case ChessGame.ROOK:
+			steps = new int[][] {{1,0},{-1,0},{0,1},{0,-1}};
+			slides = true;
+			break;
+		case ChessGame.QUEEN:
+			steps = new int[][] {{1,0},{-1,0},{0,1},{0,-1},{1,1},{1,-1},{-1,1},{-1,-1}};
+			slides = true;
+			break;
+		default:
+			steps = new int[][] {{1,0},{-1,0},{0,1},{0,-1},{1,1},{1,-1},{-1,1},{-1,-1}};
+		}
+		long attacks = 0;
+		for(int[] step : steps) {
+			int row = sq/8 + step[0];
+			int col = sq%8 + step[1];
+			while(row >= 0 && row < 8 && col >= 0 && col < 8) {
+				attacks |= 1L << (row*8 + col);
+				if(!slides || (occupied & (1L << (row*8 + col))) != 0) break;
+				row += step[0];
+				col += step[1];
+			}
+		}
+		return attacks;
+	}
+
+	//chessAI.pawnStructure written out over the squares. The chain, opening and ending parts are the loops pawnStructure used to have
+	static double pawnStructure(int[] squares, int moveCount) {
+		int whitePawn = ChessGame.code(ChessGame.PAWN, true);
+		int blackPawn = ChessGame.code(ChessGame.PAWN, false);
+		double value = structure(squares, whitePawn, blackPawn) - structure(squares, blackPawn, whitePawn);
+		if(moveCount < 5) {
+			for(int sq = 0; sq < 64; sq++) {
+				if(squares[sq] == whitePawn) value += chessAI.pawnMapBeggining[sq];
+				if(squares[sq] == blackPawn) value -= chessAI.pawnMapBeggining[sq];
+				if(squares[sq] != whitePawn || sq >= 55) continue;
+				if(sq + 7 < 64 && squares[sq + 7] == whitePawn) value += 3;
+				if(sq + 9 < 64 && squares[sq + 9] == whitePawn) value += 3;
+				if(sq + 7 < 64 && squares[sq + 7] == blackPawn) value -= 3;
+				if(sq + 9 < 64 && squares[sq + 9] == blackPawn) value -= 3;
+			}
+			return value;
+		}
+		if(moveCount > 40) {
+			for(int sq = 0; sq < 64; sq++) {
+				if(squares[sq] == whitePawn) value += chessAI.pawnMapEnding[sq];
+				if(squares[sq] == blackPawn) value -= chessAI.pawnMapEnding[sq];
+			}
+			return value;
+		}
+		for(int i = 0; i < 64; i++) {
+			if(squares[i] != whitePawn && squares[i] != blackPawn) continue;
+			int dir = squares[i] == whitePawn ? -1 : 1;
+			int chainLeft = 1;
+			int chainRight = 1;
+			for(int j = i + 7*dir; j >= 0 && j < 64 && squares[j] == squares[i]; j += 7*dir) chainRight++;
+			for(int j = i + 9*dir; j >= 0 && j < 64 && squares[j] == squares[i]; j += 9*dir) chainLeft++;
+			value += chainLeft * chainRight;
+		}
+		return value;
+	}
+
+	//Doubled, isolated and passed pawns for one side
+	static int structure(int[] squares, int pawn, int enemy) {
+		boolean white = ChessGame.isWhite(pawn);
+		int value = 0;
+		for(int file = 0; file < 8; file++) {
+			int count = 0;
+			boolean neighbours = false;
+			for(int row = 0; row < 8; row++) {
+				if(squares[row*8 + file] == pawn) count++;
+				if(file > 0 && squares[row*8 + file - 1] == pawn) neighbours = true;
+				if(file < 7 && squares[row*8 + file + 1] == pawn) neighbours = true;
+			}
+			if(count == 0) continue;
+			value -= (count - 1) * chessAI.DOUBLED;
+			if(!neighbours) value -= count * chessAI.ISOLATED;
+		}
+		for(int sq = 0; sq < 64; sq++) {
+			if(squares[sq] != pawn) continue;
+			boolean passed = true;
+			for(int row = sq/8 + (white ? 1 : -1); row >= 0 && row < 8; row += white ? 1 : -1) {
+				for(int file = Math.max(0, sq%8 - 1); file <= Math.min(7, sq%8 + 1); file++) {
+					if(squares[row*8 + file] == enemy) passed = false;
+				}
+			}
+			if(passed) value += chessAI.passedBonus[white ? sq/8 : 7 - sq/8];
+		}
+		return value;
+	}
+
+	//A network with small random weights, so every hidden unit of the accumulators is checked
+	static nnueNetwork randomNetwork(Random random) {
+		nnueNetwork network = new nnueNetwork(64, 8);
+		for(int i = 0; i < network.inputWeights.length; i++) network.inputWeights[i] = (short)(random.nextInt(129) - 64);
+		for(int i = 0; i < network.inputBiases.length; i++) network.inputBiases[i] = (short)random.nextInt(256);
+		return network;
+	}
+
+	//Everything about a position that making a move and taking it back has to leave the same
+	static class snapshot {
+		long[] pieces;
+		int[] squares;
+		long key, pawnKey;
+		int castling, enPassant;
+		boolean whiteMove;
+		int[] terms;
+		long[] attackSet;
+		int[][] attackCount;
+		short[] accumulator;
+
+		snapshot(ChessGame.chessBoard cb) {
+			pieces = cb.pieces.clone();
+			squares = cb.squares.clone();
+			key = cb.key;
+			pawnKey = cb.pawnKey;
+			castling = cb.castling;
+			enPassant = cb.enPassant;
+			whiteMove = cb.whiteMove;
+			terms = new int[] {cb.material, cb.pawnOpening, cb.pawnEnding, cb.knightSquares, cb.kingSquares};
+			attackSet = cb.attackSet.clone();
+			attackCount = new int[][] {cb.attackCount[0].clone(), cb.attackCount[1].clone()};
+			accumulator = cb.accumulator == null ? null : cb.accumulator.clone();
+		}
+	}
+
+	static void compare(ChessGame game, snapshot before, String when) {
+		snapshot now = new snapshot(game.cb);
+		expect(game, when, "board", Arrays.equals(before.pieces, now.pieces) && Arrays.equals(before.squares, now.squares));
+		expect(game, when, "keys", before.key == now.key && before.pawnKey == now.pawnKey);
+		expect(game, when, "castling, en passant or side to move", before.castling == now.castling && before.enPassant == now.enPassant && before.whiteMove == now.whiteMove);
+		expect(game, when, "evaluation totals", Arrays.equals(before.terms, now.terms));
+		expect(game, when, "attack maps", Arrays.equals(before.attackSet, now.attackSet) && Arrays.deepEquals(before.attackCount, now.attackCount));
+		expect(game, when, "NNUE accumulators", Arrays.equals(before.accumulator, now.accumulator));
+		check(game, when);
+	}
+
+	static void expect(ChessGame game, String when, String what, boolean same) {
+		if(same) return;
+		System.out.println("FAIL " + what + " " + when + "\n" + game);
+		System.exit(1);
+	}
+}
@@ -0,0 +1,740 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * endgameTable.java
+ * Probes Syzygy endgame tables, the .rtbw (win, draw or loss) and .rtbz (distance to the next capture or pawn move) files.
+ * This follows the probing code of Stockfish and Fathom, the reference for the file format:
+ * - Positions are indexed by their pieces, with the board's symmetries folded away, and with pawns split by the file of the leading pawn.
+ * - Values are stored in blocks compressed with recursive pairing and a canonical Huffman code shared by the whole file.
+ * - Tables leave out positions where a capture or pawn move is best, so a probe first tries those moves itself.
+ * Files are found when the directory is opened, memory mapped the first time they are probed and shared by every chessAI in the program.
+ * "java endgameTable <directory> <fen>" prints what the tables say about a position.
+ */
+
+public class endgameTable {
+	//What probe returns for the side to move. A cursed win or blessed loss is a win or loss the fifty move rule turns into a draw
+	static final int LOSS = -2, BLESSED_LOSS = -1, DRAW = 0, CURSED_WIN = 1, WIN = 2;
+	static final int UNKNOWN = Integer.MIN_VALUE; //Returned by probe for a position that is not in the tables
+	static final int MAX_PIECES = 7;
+	static final int WDL_MAGIC = 0x71E8235D, DTZ_MAGIC = 0xD7660CA5;
+	//How a probe went: FAIL if a table was missing, CHANGE_STM if the distance table only has the other side to move,
+	//ZEROING_BEST_MOVE if a capture or pawn move is best, so the table may not have the right value
+	static final int FAIL = 0, OK = 1, CHANGE_STM = 2, ZEROING_BEST_MOVE = 3;
+	//Flags of each compressed table. The first five are only in distance tables
+	static final int STM = 1, MAPPED = 2, WIN_PLIES = 4, LOSS_PLIES = 8, WIDE = 16, SINGLE_VALUE = 128;
+	static final String PIECES = " PNBRQK";
+	static final int[] WDL_MAP = {1, 3, 0, 2, 0}; //Which of mapIdx each result from LOSS to WIN uses
+	static final Map<String, endgameTable> open = new ConcurrentHashMap<>();
+
+	//Index tables, the same ones the generator used
+	static final int[] mapPawns = new int[64]; //a2-h7 to 0-47, highest for the pawn nearest the edge and lowest on its file
+	static final int[] mapB1H1H7 = new int[64]; //Squares below the a1-h8 diagonal to 0-27
+	static final int[] mapA1D1D4 = new int[64]; //The a1-d1-d4 triangle to 0-9, the diagonal last
+	static final int[][] mapKK = new int[10][64]; //The 462 ways to put two kings down with the first in the triangle
+	static final long[][] binomial = new long[6][64]; //Ways to pick k squares from n
+	static final int[][] leadPawnIdx = new int[6][64];
+	static final int[][] leadPawnsSize = new int[6][4];
+
+	static {
+		int code = 0;
+		for(int s = 0; s < 64; s++) if(offA1H8(s) < 0) mapB1H1H7[s] = code++;
+		code = 0;
+		List<Integer> diagonal = new ArrayList<>();
+		for(int s = 0; s <= 27; s++) {
+			if(offA1H8(s) < 0 && (s & 7) <= 3) mapA1D1D4[s] = code++;
+			else if(offA1H8(s) == 0 && (s & 7) <= 3) diagonal.add(s);
+		}
+		for(int s : diagonal) mapA1D1D4[s] = code++;
+		code = 0;
+		List<int[]> bothOnDiagonal = new ArrayList<>();
+		for(int idx = 0; idx < 10; idx++) {
+			for(int s1 = 0; s1 <= 27; s1++) {
+				if(mapA1D1D4[s1] != idx || (idx == 0 && s1 != 1)) continue; //b1 is the square mapped to 0
+				for(int s2 = 0; s2 < 64; s2++) {
+					if(((ChessGame.kingAttacks[s1] | 1L << s1) & 1L << s2) != 0) continue; //Kings next to each other
+					if(offA1H8(s1) == 0 && offA1H8(s2) > 0) continue; //The first on the diagonal and the second above it
+					if(offA1H8(s1) == 0 && offA1H8(s2) == 0) bothOnDiagonal.add(new int[] {idx, s2});
+					else mapKK[idx][s2] = code++;
+				}
+			}
+		}
+		for(int[] p : bothOnDiagonal) mapKK[p[0]][p[1]] = code++;
+		binomial[0][0] = 1;
+		for(int n = 1; n < 64; n++) {
+			for(int k = 0; k < 6 && k <= n; k++) binomial[k][n] = (k > 0 ? binomial[k-1][n-1] : 0) + (k < n ? binomial[k][n-1] : 0);
+		}
+		int available = 47;
+		for(int leadPawns = 1; leadPawns <= 5; leadPawns++) {
+			for(int f = 0; f < 4; f++) {
+				int idx = 0; //Each file is its own table, so the index starts again
+				for(int r = 1; r <= 6; r++) {
+					int sq = r*8 + f;
+					if(leadPawns == 1) {
+						mapPawns[sq] = available--;
+						mapPawns[sq ^ 7] = available--;
+					}
+					leadPawnIdx[leadPawns][sq] = idx;
+					idx += binomial[leadPawns - 1][mapPawns[sq]];
+				}
+				leadPawnsSize[leadPawns][f] = idx;
+			}
+		}
+	}
+
+	Map<Long, table> wdl = new HashMap<>(); //By material key, under both colors
+	Map<Long, table> dtz = new HashMap<>();
+	int maxPieces;
+
+	//Finds the tables in the directories, separated like a class path. Nothing is read from them until they are probed
+	private endgameTable(String directories) {
+		for(String directory : directories.split(File.pathSeparator)) {
+			File[] files = new File(directory).listFiles((d, name) -> name.matches("K[QRBNP]*vK[QRBNP]*\\.rtbw"));
+			if(files == null) continue;
+			for(File f : files) {
+				String name = f.getName().substring(0, f.getName().length() - 5);
+				if(name.length() - 1 > MAX_PIECES) continue;
+				table w = new table(f.toPath(), name, true);
+				wdl.put(w.key, w);
+				wdl.put(w.key2, w);
+				Path z = Paths.get(directory, name + ".rtbz");
+				if(Files.isReadable(z)) {
+					table d = new table(z, name, false);
+					dtz.put(d.key, d);
+					dtz.put(d.key2, d);
+				}
+				maxPieces = Math.max(maxPieces, w.pieceCount);
+			}
+		}
+	}
+
+	//The tables in the directories, or null if there are none there
+	static endgameTable open(String directories) {
+		endgameTable tables = open.computeIfAbsent(directories, endgameTable::new);
+		return tables.wdl.isEmpty() ? null : tables;
+	}
+
+	//WIN, CURSED_WIN, DRAW, BLESSED_LOSS or LOSS for the side to move, or UNKNOWN if the position is not in the tables
+	int probe(ChessGame game) {
+		if(Long.bitCount(game.occupied()) > maxPieces || game.castling() != 0) return UNKNOWN;
+		int[] result = {OK};
+		int value = search(game, result, false);
+		return result[0] == FAIL ? UNKNOWN : value;
+	}
+
+	//Plies to the next capture or pawn move with best play, negative when the side to move is losing and 0 for a draw.
+	//Past 100 it is a cursed win or blessed loss. It can be one ply too long, as in the tables. UNKNOWN if the position is not in them
+	int probeDtz(ChessGame game) {
+		if(Long.bitCount(game.occupied()) > maxPieces || game.castling() != 0) return UNKNOWN;
+		int[] result = {OK};
+		int value = dtz(game, result);
+		return result[0] == FAIL ? UNKNOWN : value;
+	}
+
+	//The move that keeps a win and gets to the next capture or pawn move fastest, or when lost the one that takes longest.
+	//Returns 0 for a drawn position so the search can pick between the drawing moves, and for one that is not in the tables
+	int bestMove(ChessGame game) {
+		int value = probe(game);
+		if(value == UNKNOWN || value == DRAW) return 0;
+		int[] list = new int[256];
+		int n = game.legalMoves(list);
+		int[] result = {OK};
+		int best = 0;
+		int bestRank = Integer.MIN_VALUE;
+		for(int i = 0; i < n; i++) {
+			boolean zeroing = ChessGame.isCapture(list[i]) || ChessGame.type(game.piece(ChessGame.from(list[i]))) == ChessGame.PAWN;
+			game.makeMove(list[i]);
+			int d;
+			if(zeroing) {
+				d = beforeZeroing(-search(game, result, false));
+			} else {
+				d = -dtz(game, result);
+				d += Integer.signum(d); //One ply more for the move itself
+			}
+			if(d == 2 && game.inCheck() != 0 && game.legalMoves(new int[256]) == 0) d = 1; //The move mates
+			game.unmakeMove();
+			if(result[0] == FAIL) return 0;
+			int rank = d > 0 ? 100000 - d : d < 0 ? -100000 - d : 0;
+			if(rank > bestRank) {
+				bestRank = rank;
+				best = list[i];
+			}
+		}
+		return best;
+	}
+
+	//Tries the captures, and with zeroing the pawn moves too, before the table, since the table may not have the right value when one of them is best
+	int search(ChessGame game, int[] result, boolean zeroing) {
+		int[] list = new int[256];
+		int total = game.legalMoves(list);
+		int moveCount = 0;
+		int bestValue = LOSS;
+		for(int i = 0; i < total; i++) {
+			int move = list[i];
+			if(!ChessGame.isCapture(move) && (!zeroing || ChessGame.type(game.piece(ChessGame.from(move))) != ChessGame.PAWN)) continue;
+			moveCount++;
+			game.makeMove(move);
+			int value = -search(game, result, false);
+			game.unmakeMove();
+			if(result[0] == FAIL) return DRAW;
+			if(value > bestValue) {
+				bestValue = value;
+				if(value >= WIN) {
+					result[0] = ZEROING_BEST_MOVE;
+					return value;
+				}
+			}
+		}
+		//With nothing but those moves the table is not needed, and it can be wrong when one of them is en passant
+		boolean noMoreMoves = moveCount != 0 && moveCount == total;
+		int value;
+		if(noMoreMoves) {
+			value = bestValue;
+		} else {
+			value = probeTable(game, false, DRAW, result);
+			if(result[0] == FAIL) return DRAW;
+		}
+		if(bestValue >= value) {
+			result[0] = bestValue > DRAW || noMoreMoves ? ZEROING_BEST_MOVE : OK;
+			return bestValue;
+		}
+		result[0] = OK;
+		return value;
+	}
+
+	int dtz(ChessGame game, int[] result) {
+		result[0] = OK;
+		int value = search(game, result, true);
+		if(result[0] == FAIL || value == DRAW) return 0; //Draws are not in the distance tables
+		if(result[0] == ZEROING_BEST_MOVE) return beforeZeroing(value);
+		int d = probeTable(game, true, value, result);
+		if(result[0] == FAIL) return 0;
+		if(result[0] != CHANGE_STM) return (d + (value == BLESSED_LOSS || value == CURSED_WIN ? 100 : 0)) * Integer.signum(value);
+		//The table only has the other side to move, so go one ply further
+		int[] list = new int[256];
+		int n = game.legalMoves(list);
+		int min = 0xFFFF;
+		for(int i = 0; i < n; i++) {
+			boolean zeroing = ChessGame.isCapture(list[i]) || ChessGame.type(game.piece(ChessGame.from(list[i]))) == ChessGame.PAWN;
+			game.makeMove(list[i]);
+			d = zeroing ? -beforeZeroing(search(game, result, false)) : -dtz(game, result);
+			if(d == 1 && game.inCheck() != 0 && game.legalMoves(new int[256]) == 0) min = 1; //The move mates
+			if(!zeroing) d += Integer.signum(d);
+			if(d < min && Integer.signum(d) == Integer.signum(value)) min = d;
+			game.unmakeMove();
+			if(result[0] == FAIL) return 0;
+		}
+		return min == 0xFFFF ? -1 : min; //No moves, mated
+	}
+
+	//The distance of the position before a capture or pawn move, which the tables do not store
+	static int beforeZeroing(int value) {
+		switch(value) {
+			case WIN: return 1;
+			case CURSED_WIN: return 101;
+			case BLESSED_LOSS: return -101;
+			case LOSS: return -1;
+			default: return 0;
+		}
+	}
+
+	int probeTable(ChessGame game, boolean distance, int value, int[] result) {
+		if(Long.bitCount(game.occupied()) == 2) return DRAW; //Kings alone
+		long key = materialKey(game);
+		table t = (distance ? dtz : wdl).get(key);
+		if(t == null || !t.ready()) {
+			result[0] = FAIL;
+			return 0;
+		}
+		return t.probe(game, key != t.key, value, result);
+	}
+
+	//Four bits for how many there are of each piece, the same for a table whichever side the pieces are on
+	static long materialKey(ChessGame game) {
+		long key = 0;
+		for(int code = 1; code <= 12; code++) key |= (long)Long.bitCount(game.pieces(code)) << (code * 4);
+		return key;
+	}
+
+	static int offA1H8(int sq) {
+		return (sq >>> 3) - (sq & 7);
+	}
+
+	//One file: the index of every table in it, and the file mapped once it is probed
+	static class table {
+		final Path path;
+		final boolean wdl;
+		final long key; //The material with the first side of the name white
+		final long key2; //And with it black
+		final int pieceCount;
+		final boolean hasPawns;
+		final boolean hasUniquePieces; //A piece other than a king that is the only one of its kind
+		final int[] pawnCount = new int[2]; //The side of the leading pawn first, the one with fewer pawns
+		final int sides; //Win, draw or loss tables have one for each side to move unless both sides have the same pieces
+		final pairs[][] items; //[side to move][file of the leading pawn, or 0 with no pawns]
+		volatile boolean ready;
+		boolean failed;
+		mappedFile file;
+		long map; //Where the distance table maps its values back to distances
+
+		table(Path path, String name, boolean wdl) {
+			this.path = path;
+			this.wdl = wdl;
+			String[] sides = name.split("v");
+			int[][] counts = new int[2][7];
+			for(int s = 0; s < 2; s++) for(char c : sides[s].toCharArray()) counts[s][PIECES.indexOf(c)]++;
+			long k = 0, k2 = 0;
+			boolean unique = false;
+			for(int type = ChessGame.PAWN; type <= ChessGame.KING; type++) {
+				k |= (long)counts[0][type] << (ChessGame.code(type, true) * 4) | (long)counts[1][type] << (ChessGame.code(type, false) * 4);
+				k2 |= (long)counts[1][type] << (ChessGame.code(type, true) * 4) | (long)counts[0][type] << (ChessGame.code(type, false) * 4);
+				if(type != ChessGame.KING && (counts[0][type] == 1 || counts[1][type] == 1)) unique = true;
+			}
+			key = k;
+			key2 = k2;
+			pieceCount = name.length() - 1;
+			hasPawns = counts[0][ChessGame.PAWN] + counts[1][ChessGame.PAWN] > 0;
+			hasUniquePieces = unique;
+			boolean firstLeads = counts[1][ChessGame.PAWN] == 0 || (counts[0][ChessGame.PAWN] > 0 && counts[1][ChessGame.PAWN] >= counts[0][ChessGame.PAWN]);
+			pawnCount[0] = counts[firstLeads ? 0 : 1][ChessGame.PAWN];
+			pawnCount[1] = counts[firstLeads ? 1 : 0][ChessGame.PAWN];
+			this.sides = wdl && key != key2 ? 2 : 1;
+			items = new pairs[this.sides][hasPawns ? 4 : 1];
+		}
+
+		pairs get(int stm, int f) {
+			return items[stm % sides][hasPawns ? f : 0];
+		}
+
+		//Maps and reads the file the first time, from whichever thread gets here first
+		boolean ready() {
+			if(ready) return !failed;
+			synchronized(this) {
+				if(!ready) {
+					try {
+						file = new mappedFile(path);
+						if(file.u32be(0) != (wdl ? WDL_MAGIC : DTZ_MAGIC)) throw new IOException("not a Syzygy table");
+						read(4);
+					} catch (IOException | RuntimeException e) {
+						System.err.println(path + ": " + e.getMessage());
+						failed = true;
+					}
+					ready = true;
+				}
+			}
+			return !failed;
+		}
+
+		//The header, then every table's sizes and symbols, the distance maps, the sparse indexes, the block lengths and the blocks
+		void read(long p) throws IOException {
+			int flags = file.u8(p++);
+			if(((flags & 2) != 0) != hasPawns || ((flags & 1) != 0) != (key != key2)) throw new IOException("does not match its name");
+			int files = hasPawns ? 4 : 1;
+			boolean pp = hasPawns && pawnCount[1] > 0; //Pawns on both sides
+			for(int f = 0; f < files; f++) {
+				for(int i = 0; i < sides; i++) items[i][f] = new pairs();
+				int[][] order = {{file.u8(p) & 0xF, pp ? file.u8(p + 1) & 0xF : 0xF}, {file.u8(p) >>> 4, pp ? file.u8(p + 1) >>> 4 : 0xF}};
+				p += pp ? 2 : 1;
+				for(int k = 0; k < pieceCount; k++, p++) {
+					for(int i = 0; i < sides; i++) items[i][f].pieces[k] = i == 1 ? file.u8(p) >>> 4 : file.u8(p) & 0xF;
+				}
+				for(int i = 0; i < sides; i++) setGroups(items[i][f], order[i], f);
+			}
+			p += p & 1;
+			for(int f = 0; f < files; f++) for(int i = 0; i < sides; i++) p = items[i][f].setSizes(file, p);
+			if(!wdl) p = setDtzMap(p, files);
+			for(int f = 0; f < files; f++) {
+				for(int i = 0; i < sides; i++) {
+					items[i][f].sparseIndex = p;
+					p += items[i][f].sparseIndexSize * 6;
+				}
+			}
+			for(int f = 0; f < files; f++) {
+				for(int i = 0; i < sides; i++) {
+					items[i][f].blockLength = p;
+					p += items[i][f].blockLengthSize * 2;
+				}
+			}
+			for(int f = 0; f < files; f++) {
+				for(int i = 0; i < sides; i++) {
+					if(items[i][f].numBlocks == 0) continue; //Single values have no blocks and may end the file before the next 64 bytes
+					p = (p + 0x3F) & ~0x3FL; //Blocks start on 64 bytes
+					items[i][f].data = p;
+					p += items[i][f].numBlocks * items[i][f].blockSize;
+				}
+			}
+			if(p > file.size) throw new IOException("is cut short");
+		}
+
+		//Splits the pieces into the groups they are indexed by: the leading three unique pieces, or the kings, or the leading pawns,
+		//then each run of the same piece. groupIdx is what each group's index is multiplied by, in the order the file gives
+		void setGroups(pairs d, int[] order, int f) {
+			int n = 0;
+			int firstLen = hasPawns ? 0 : hasUniquePieces ? 3 : 2;
+			d.groupLen[n] = 1;
+			for(int i = 1; i < pieceCount; i++) {
+				if(--firstLen > 0 || d.pieces[i] == d.pieces[i-1]) d.groupLen[n]++;
+				else d.groupLen[++n] = 1;
+			}
+			d.groupLen[++n] = 0;
+			boolean pp = hasPawns && pawnCount[1] > 0;
+			int next = pp ? 2 : 1;
+			int freeSquares = 64 - d.groupLen[0] - (pp ? d.groupLen[1] : 0);
+			long idx = 1;
+			for(int k = 0; next < n || k == order[0] || k == order[1]; k++) {
+				if(k == order[0]) {
+					d.groupIdx[0] = idx;
+					idx *= hasPawns ? leadPawnsSize[d.groupLen[0]][f] : hasUniquePieces ? 31332 : 462;
+				} else if(k == order[1]) {
+					d.groupIdx[1] = idx;
+					idx *= binomial[d.groupLen[1]][48 - d.groupLen[0]];
+				} else {
+					d.groupIdx[next] = idx;
+					idx *= binomial[d.groupLen[next]][freeSquares];
+					freeSquares -= d.groupLen[next++];
+				}
+			}
+			d.groupIdx[n] = idx;
+		}
+
+		//Distances are stored as their rank by how often they come up, for each of the four results. These are the lists to turn them back
+		long setDtzMap(long p, int files) {
+			map = p;
+			for(int f = 0; f < files; f++) {
+				pairs d = get(0, f);
+				if((d.flags & MAPPED) == 0) continue;
+				if((d.flags & WIDE) != 0) {
+					p += p & 1;
+					for(int i = 0; i < 4; i++) {
+						d.mapIdx[i] = (int)((p - map) / 2 + 1);
+						p += 2 * file.u16le(p) + 2;
+					}
+				} else {
+					for(int i = 0; i < 4; i++) {
+						d.mapIdx[i] = (int)(p - map + 1);
+						p += file.u8(p) + 1;
+					}
+				}
+			}
+			return p + (p & 1);
+		}
+
+		//The value for the position, with black's pieces swapped onto white's when the table has them the other way round
+		int probe(ChessGame game, boolean blackStronger, int value, int[] result) {
+			int[] squares = new int[MAX_PIECES];
+			int[] pieces = new int[MAX_PIECES];
+			boolean whiteToMove = game.whitesMove();
+			boolean flip = (key == key2 && !whiteToMove) || blackStronger; //Tables with the same pieces on both sides only have white to move
+			int flipColor = flip ? 8 : 0;
+			int flipSquares = flip ? 56 : 0;
+			int stm = (flip ? 1 : 0) ^ (whiteToMove ? 0 : 1);
+			int size = 0;
+			int leadPawnsCnt = 0;
+			long leadPawns = 0;
+			int tbFile = 0;
+			//With pawns there is a table for each file a-d of the leading pawn, the one nearest the edge and then lowest
+			if(hasPawns) {
+				boolean white = (get(0, 0).pieces[0] ^ flipColor) < 8;
+				leadPawns = game.pieces(ChessGame.code(ChessGame.PAWN, white));
+				for(long b = leadPawns; b != 0; b &= b - 1) squares[size++] = Long.numberOfTrailingZeros(b) ^ flipSquares;
+				leadPawnsCnt = size;
+				int lead = 0;
+				for(int i = 1; i < leadPawnsCnt; i++) if(mapPawns[squares[i]] > mapPawns[squares[lead]]) lead = i;
+				swap(squares, 0, lead);
+				tbFile = Math.min(squares[0] & 7, 7 - (squares[0] & 7));
+			}
+			if(!wdl && (get(0, tbFile).flags & STM) != stm && (key != key2 || hasPawns)) {
+				result[0] = CHANGE_STM;
+				return 0;
+			}
+			for(long b = game.occupied() & ~leadPawns; b != 0; b &= b - 1) {
+				int s = Long.numberOfTrailingZeros(b);
+				int code = game.piece(s);
+				squares[size] = s ^ flipSquares;
+				pieces[size++] = (ChessGame.type(code) + (ChessGame.isWhite(code) ? 0 : 8)) ^ flipColor;
+			}
+			pairs d = get(stm, tbFile);
+			//Put the pieces in the order the table has them
+			for(int i = leadPawnsCnt; i < size - 1; i++) {
+				for(int j = i + 1; j < size; j++) {
+					if(d.pieces[i] == pieces[j]) {
+						swap(pieces, i, j);
+						swap(squares, i, j);
+						break;
+					}
+				}
+			}
+			//Then mirror the board so the leading piece is on files a-d
+			if((squares[0] & 7) > 3) for(int i = 0; i < size; i++) squares[i] ^= 7;
+			long idx;
+			if(hasPawns) {
+				idx = leadPawnIdx[leadPawnsCnt][squares[0]];
+				sortByMapPawns(squares, 1, leadPawnsCnt);
+				for(int i = 1; i < leadPawnsCnt; i++) idx += binomial[i][mapPawns[squares[i]]];
+			} else {
+				//Without pawns, also ranks 1-4 and below the a1-h8 diagonal
+				if(squares[0] >>> 3 > 3) for(int i = 0; i < size; i++) squares[i] ^= 56;
+				for(int i = 0; i < d.groupLen[0]; i++) {
+					if(offA1H8(squares[i]) == 0) continue;
+					if(offA1H8(squares[i]) > 0) for(int j = i; j < size; j++) squares[j] = ((squares[j] >>> 3) | (squares[j] << 3)) & 63;
+					break;
+				}
+				if(hasUniquePieces) {
+					int adjust1 = squares[1] > squares[0] ? 1 : 0;
+					int adjust2 = (squares[2] > squares[0] ? 1 : 0) + (squares[2] > squares[1] ? 1 : 0);
+					if(offA1H8(squares[0]) != 0) {
+						idx = (mapA1D1D4[squares[0]] * 63 + (squares[1] - adjust1)) * 62 + squares[2] - adjust2;
+					} else if(offA1H8(squares[1]) != 0) {
+						idx = (6 * 63 + (squares[0] >>> 3) * 28 + mapB1H1H7[squares[1]]) * 62 + squares[2] - adjust2;
+					} else if(offA1H8(squares[2]) != 0) {
+						idx = 6 * 63 * 62 + 4 * 28 * 62 + (squares[0] >>> 3) * 7 * 28 + ((squares[1] >>> 3) - adjust1) * 28 + mapB1H1H7[squares[2]];
+					} else {
+						idx = 6 * 63 * 62 + 4 * 28 * 62 + 4 * 7 * 28 + (squares[0] >>> 3) * 7 * 6 + ((squares[1] >>> 3) - adjust1) * 6 + ((squares[2] >>> 3) - adjust2);
+					}
+				} else {
+					idx = mapKK[mapA1D1D4[squares[0]]][squares[1]];
+				}
+			}
+			idx *= d.groupIdx[0];
+			//The other groups, each as a combination of the squares the groups before it leave free
+			int start = d.groupLen[0];
+			boolean remainingPawns = hasPawns && pawnCount[1] > 0;
+			for(int next = 1; d.groupLen[next] != 0; next++) {
+				Arrays.sort(squares, start, start + d.groupLen[next]);
+				long n = 0;
+				for(int i = 0; i < d.groupLen[next]; i++) {
+					int adjust = 0;
+					for(int j = 0; j < start; j++) if(squares[start + i] > squares[j]) adjust++;
+					n += binomial[i + 1][squares[start + i] - adjust - (remainingPawns ? 8 : 0)];
+				}
+				remainingPawns = false;
+				idx += n * d.groupIdx[next];
+				start += d.groupLen[next];
+			}
+			int v = d.decompress(file, idx);
+			return wdl ? v - 2 : mapScore(tbFile, v, value);
+		}
+
+		//Distance tables can be in moves instead of plies, and have their values ranked by how often they come up
+		int mapScore(int f, int v, int value) {
+			pairs d = get(0, f);
+			if((d.flags & MAPPED) != 0) {
+				int i = d.mapIdx[WDL_MAP[value + 2]] + v;
+				v = (d.flags & WIDE) != 0 ? file.u16le(map + 2L * i) : file.u8(map + i);
+			}
+			if((value == WIN && (d.flags & WIN_PLIES) == 0) || (value == LOSS && (d.flags & LOSS_PLIES) == 0) || value == CURSED_WIN || value == BLESSED_LOSS) v *= 2;
+			return v + 1;
+		}
+	}
+
+	//One compressed table: one side to move, and with pawns one file of the leading pawn
+	static class pairs {
+		int flags;
+		int maxSymLen;
+		int minSymLen; //Or the only value, for a SINGLE_VALUE table
+		long numBlocks;
+		long blockSize;
+		long span; //There is a sparse index entry for every span values
+		int[] lowestSym; //The lowest symbol with each code length
+		long[] base64; //The lowest code of each length, padded to 64 bits
+		int[] left; //The two symbols each symbol stands for, or its value in left when right is 0xFFF
+		int[] right;
+		int[] symlen; //How many values each symbol stands for, less one
+		long blockLength; //Where the number of values in each block, less one, starts
+		long blockLengthSize;
+		long sparseIndex;
+		long sparseIndexSize;
+		long data;
+		int[] pieces = new int[MAX_PIECES];
+		long[] groupIdx = new long[MAX_PIECES + 1];
+		int[] groupLen = new int[MAX_PIECES + 1];
+		int[] mapIdx = new int[4]; //Where the map for WIN, LOSS, CURSED_WIN and BLESSED_LOSS starts
+
+		long setSizes(mappedFile file, long p) {
+			flags = file.u8(p++);
+			if((flags & SINGLE_VALUE) != 0) {
+				minSymLen = file.u8(p++);
+				return p;
+			}
+			int groups = 0;
+			while(groupLen[groups] != 0) groups++;
+			long tbSize = groupIdx[groups];
+			blockSize = 1L << file.u8(p++);
+			span = 1L << file.u8(p++);
+			sparseIndexSize = (tbSize + span - 1) / span;
+			int padding = file.u8(p++);
+			numBlocks = file.u32le(p) & 0xFFFFFFFFL;
+			p += 4;
+			blockLengthSize = numBlocks + padding; //Padded so the sparse index never points past the end
+			maxSymLen = file.u8(p++);
+			minSymLen = file.u8(p++);
+			int lengths = maxSymLen - minSymLen + 1;
+			lowestSym = new int[lengths];
+			for(int i = 0; i < lengths; i++) lowestSym[i] = file.u16le(p + 2L * i);
+			//Longer codes have lower values, so base64 goes down as the length goes up
+			base64 = new long[lengths];
+			for(int i = lengths - 2; i >= 0; i--) base64[i] = (base64[i+1] + lowestSym[i] - lowestSym[i+1]) / 2;
+			for(int i = 0; i < lengths; i++) base64[i] <<= 64 - i - minSymLen;
+			p += 2L * lengths;
+			int symbols = file.u16le(p);
+			p += 2;
+			left = new int[symbols];
+			right = new int[symbols];
+			for(int s = 0; s < symbols; s++) {
+				int b0 = file.u8(p + 3L * s), b1 = file.u8(p + 3L * s + 1), b2 = file.u8(p + 3L * s + 2);
+				left[s] = (b1 & 0xF) << 8 | b0;
+				right[s] = b2 << 4 | b1 >>> 4;
+			}
+			symlen = new int[symbols];
+			boolean[] visited = new boolean[symbols];
+			for(int s = 0; s < symbols; s++) if(!visited[s]) symlen[s] = setSymlen(s, visited);
+			return p + 3L * symbols + (symbols & 1);
+		}
+
+		int setSymlen(int s, boolean[] visited) {
+			visited[s] = true;
+			if(right[s] == 0xFFF) return 0;
+			if(!visited[left[s]]) symlen[left[s]] = setSymlen(left[s], visited);
+			if(!visited[right[s]]) symlen[right[s]] = setSymlen(right[s], visited);
+			return (symlen[left[s]] + symlen[right[s]] + 1) & 0xFF;
+		}
+
+		//The value at idx. The sparse index gives a block near it, the block lengths the right block, and the block is decoded
+		//until the symbol that has it, which is then split into the pairs it stands for
+		int decompress(mappedFile file, long idx) {
+			if((flags & SINGLE_VALUE) != 0) return minSymLen;
+			long k = idx / span;
+			long block = file.u32le(sparseIndex + 6 * k) & 0xFFFFFFFFL;
+			int offset = file.u16le(sparseIndex + 6 * k + 4);
+			offset += (int)(idx % span - span / 2);
+			while(offset < 0) offset += file.u16le(blockLength + 2 * --block) + 1;
+			while(offset > file.u16le(blockLength + 2 * block)) offset -= file.u16le(blockLength + 2 * block++) + 1;
+			long ptr = data + block * blockSize;
+			long buf64 = file.u64be(ptr);
+			ptr += 8;
+			int buf64Size = 64;
+			int sym;
+			while(true) {
+				int len = 0;
+				while(Long.compareUnsigned(buf64, base64[len]) < 0) len++;
+				sym = (int)((buf64 - base64[len]) >>> (64 - len - minSymLen));
+				sym = (sym + lowestSym[len]) & 0xFFFF;
+				if(offset < symlen[sym] + 1) break;
+				offset -= symlen[sym] + 1;
+				len += minSymLen;
+				buf64 <<= len;
+				buf64Size -= len;
+				if(buf64Size <= 32) {
+					buf64Size += 32;
+					buf64 |= (file.u32be(ptr) & 0xFFFFFFFFL) << (64 - buf64Size);
+					ptr += 4;
+				}
+			}
+			while(symlen[sym] != 0) {
+				if(offset < symlen[left[sym]] + 1) {
+					sym = left[sym];
+				} else {
+					offset -= symlen[left[sym]] + 1;
+					sym = right[sym];
+				}
+			}
+			return left[sym];
+		}
+	}
+
+	//A read only file mapped in pieces of 1GB, each with a few bytes of the next so no read is split between two.
+	//Decoding the last block can read a few bytes past the end of the file, which read as 0
+	static class mappedFile {
+		static final int CHUNK = 1 << 30;
+		final MappedByteBuffer[] chunks;
+		final long size;
+
+		mappedFile(Path path) throws IOException {
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				size = channel.size();
+				chunks = new MappedByteBuffer[(int)((size + CHUNK - 1) / CHUNK)];
+				for(int i = 0; i < chunks.length; i++) {
+					long start = (long)i * CHUNK;
+					chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK + 16L, size - start));
+				}
+			}
+		}
+
+		int u8(long p) {
+			return chunks[(int)(p >>> 30)].get((int)(p & (CHUNK - 1))) & 0xFF;
+		}
+
+		int u16le(long p) {
+			return Short.reverseBytes(chunks[(int)(p >>> 30)].getShort((int)(p & (CHUNK - 1)))) & 0xFFFF;
+		}
+
+		int u32le(long p) {
+			return Integer.reverseBytes(chunks[(int)(p >>> 30)].getInt((int)(p & (CHUNK - 1))));
+		}
+
+		int u32be(long p) {
+			if(p + 4 > size) return (int)tail(p, 4);
+			return chunks[(int)(p >>> 30)].getInt((int)(p & (CHUNK - 1)));
+		}
+
+		long u64be(long p) {
+			if(p + 8 > size) return tail(p, 8);
+			return chunks[(int)(p >>> 30)].getLong((int)(p & (CHUNK - 1)));
+		}
+
+		long tail(long p, int bytes) {
+			long v = 0;
+			for(int i = 0; i < bytes; i++) v = v << 8 | (p + i < size ? u8(p + i) : 0);
+			return v;
+		}
+	}
+
+	static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	//Insertion sort, stable like the generator's
+	static void sortByMapPawns(int[] squares, int from, int to) {
+		for(int i = from + 1; i < to; i++) {
+			int s = squares[i];
+			int j = i;
+			for(; j > from && mapPawns[squares[j-1]] > mapPawns[s]; j--) squares[j] = squares[j-1];
+			squares[j] = s;
+		}
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.out.println("usage: endgameTable <directory> <fen>");
+			return;
+		}
+		endgameTable tables = open(args[0]);
+		if(tables == null) {
+			System.out.println("No tables in " + args[0]);
+			return;
+		}
+		ChessGame game = new ChessGame(String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+		int value = tables.probe(game);
+		if(value == UNKNOWN) {
+			System.out.println("Not in the tables, which go up to " + tables.maxPieces + " pieces");
+			return;
+		}
+		System.out.println("wdl " + value + ", dtz " + tables.probeDtz(game));
+		int move = tables.bestMove(game);
+		if(move != 0) System.out.println("best move " + game.moveToString(move));
+	}
+}
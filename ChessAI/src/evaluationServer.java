@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * evaluationServer.java
+ * A model server for remoteEvaluator, in place of the Flask server.py.
+ * It takes the boards remoteEvaluator sends to /predict and answers with white's score for each one.
+ * With a model file the scores come from the network through neuralEvaluator, without one they come from chessAI.evaluateBoard,
+ * which is useful for trying remoteEvaluator against a server on the same machine.
+ * "java evaluationServer [port] [model.h5]", the port is 5000 like server.py if it is not given.
+ */
+
+public class evaluationServer {
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		neuralEvaluator network = args.length > 1 ? new neuralEvaluator(args[1], 1) : null;
+		chessAI heuristic = new chessAI(true, 1);
+		System.setProperty("sun.net.httpserver.nodelay", "true"); //Otherwise every answer waits about 40ms on Nagle and delayed acks
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/predict", exchange -> {
+			byte[] body = exchange.getRequestBody().readAllBytes();
+			int n = body.length / 64;
+			double[] scores = new double[n];
+			if(network != null) {
+				float[] boards = new float[n * 64];
+				for(int i = 0; i < boards.length; i++) boards[i] = body[i];
+				network.run(boards, new long[n], n, scores);
+			}
+			else {
+				for(int i = 0; i < n; i++) {
+					int[] board = new int[64];
+					for(int sq = 0; sq < 64; sq++) board[sq] = body[i * 64 + sq];
+					scores[i] = heuristic.evaluateBoard(new ChessGame(board, true), 0);
+				}
+			}
+			ByteBuffer answer = ByteBuffer.allocate(n * 8);
+			for(double s : scores) answer.putDouble(s);
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			exchange.sendResponseHeaders(200, answer.capacity());
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(answer.array());
+			}
+		});
+		server.setExecutor(Executors.newFixedThreadPool(4)); //Requests from several search threads can be answered at once
+		server.start();
+		System.out.println("Scoring boards on port " + port + " with " + (network != null ? args[1] : "evaluateBoard"));
+	}
+}
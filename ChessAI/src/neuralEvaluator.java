@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.modelimport.keras.Hdf5Archive;
+import org.deeplearning4j.nn.modelimport.keras.KerasModelImport;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.shade.jackson.databind.JsonNode;
+import org.nd4j.shade.jackson.databind.ObjectMapper;
+
+/*
+ * neuralEvaluator.java
+ * Runs the Keras model in javaModel.h5 inside the program with DL4J, instead of sending every board to server.py.
+ * The network takes the 64 squares of getBoard() and gives one score in the same units as chessAI.evaluateBoard, from white's side.
+ * A forward pass costs about the same for one board as for a few hundred, so boards are run in batches.
+ * The search queues up the positions it is about to reach with add and runs them all at once with flush,
+ * the scores go into a cache by Zobrist key that evaluate reads when the search gets to them.
+ * chessAI only makes one of these when it is asked to, so the DL4J classes are never loaded by a program that does not use the network.
+ * javaModel.h5 was saved by Keras 3, which DL4J 1.0.0-beta2 cannot import, so files like it are read by keras3 instead.
+ * remoteEvaluator keeps the batches and the cache but sends the boards to a model server instead of running them here.
+ */
+
+public class neuralEvaluator {
+	static final int CACHE = 1 << 16; //Cached scores per search thread
+
+	MultiLayerNetwork model;
+	int batch;
+
+	neuralEvaluator(String path, int batch) throws IOException {
+		try {
+			model = KerasModelImport.importKerasSequentialModelAndWeights(path);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			try {
+				model = keras3.load(path);
+			} catch (Exception e2) {
+				IOException failed = new IOException("Could not load the model in " + path, e);
+				failed.addSuppressed(e2);
+				throw failed;
+			}
+		}
+		this.batch = Math.max(1, batch);
+	}
+
+	//For an evaluator that scores the boards some other way
+	neuralEvaluator(int batch) {
+		this.batch = Math.max(1, batch);
+	}
+
+	//Runs the network on the first n boards, 64 squares each, and writes white's score for each into scores. NaN means there is no score
+	void run(float[] boards, long[] keys, int n, double[] scores) {
+		INDArray output;
+		synchronized(this) { //One forward pass at a time, the network keeps its activations between calls
+			output = model.output(Nd4j.create(Arrays.copyOf(boards, n * 64), new int[] {n, 64}));
+		}
+		for(int i = 0; i < n; i++) scores[i] = output.getDouble(i);
+	}
+
+	//White's score for one position with a forward pass of its own
+	double score(ChessGame game) {
+		float[] board = new float[64];
+		for(int sq = 0; sq < 64; sq++) board[sq] = game.piece(sq);
+		double[] score = new double[1];
+		run(board, new long[] {game.getKey()}, 1, score);
+		return score[0];
+	}
+
+	//A batch being filled by one search thread, and the scores that thread has already been given
+	class queue {
+		float[] boards = new float[batch * 64];
+		long[] keys = new long[batch];
+		double[] results = new double[batch];
+		int size;
+		long[] cacheKeys = new long[CACHE];
+		double[] cacheScores = new double[CACHE];
+
+		//Adds the position to the batch unless its score is already known. Runs the batch once it is full
+		void add(ChessGame game) {
+			long key = game.getKey();
+			if(cached(key)) return;
+			for(int i = 0; i < size; i++) if(keys[i] == key) return;
+			for(int sq = 0; sq < 64; sq++) boards[size * 64 + sq] = game.piece(sq);
+			keys[size++] = key;
+			if(size == batch) flush();
+		}
+
+		//Scores everything in the batch with one forward pass
+		void flush() {
+			if(size == 0) return;
+			run(boards, keys, size, results);
+			for(int i = 0; i < size; i++) {
+				if(Double.isNaN(results[i])) continue; //No answer from a remote network, so it is asked again next time
+				int slot = (int)keys[i] & (CACHE - 1);
+				cacheKeys[slot] = keys[i];
+				cacheScores[slot] = results[i];
+			}
+			size = 0;
+		}
+
+		boolean cached(long key) {
+			return cacheKeys[(int)key & (CACHE - 1)] == key && key != 0;
+		}
+
+		//White's score for the position. If no one asked for it ahead of time it is run in a batch of its own.
+		//NaN if it still has no score after that
+		double score(ChessGame game) {
+			long key = game.getKey();
+			if(!cached(key)) {
+				add(game);
+				flush();
+				if(!cached(key)) return Double.NaN;
+			}
+			return cacheScores[(int)key & (CACHE - 1)];
+		}
+	}
+
+	//Builds the network from a Keras 3 file of Dense layers. It is a class of its own so
+	//remoteEvaluator, which is a neuralEvaluator too, can be loaded without the DL4J layer classes
+	static class keras3 {
+		//Keras 3 names the input shape batch_shape and keeps the layer list somewhere DL4J 1.0.0-beta2 does not look,
+		//but the weights are still under model_weights/<layer>/kernel and bias
+		static MultiLayerNetwork load(String path) throws Exception {
+			Hdf5Archive file = new Hdf5Archive(path);
+			try {
+				JsonNode layers = new ObjectMapper().readTree(file.readAttributeAsString("model_config")).get("config").get("layers");
+				NeuralNetConfiguration.ListBuilder list = new NeuralNetConfiguration.Builder().list();
+				List<INDArray[]> weights = new ArrayList<>();
+				for(JsonNode layer : layers) {
+					String type = layer.get("class_name").asText();
+					if(type.equals("InputLayer")) continue;
+					if(!type.equals("Dense")) throw new IOException("Only Dense layers can be read from a Keras 3 file, not " + type);
+					JsonNode config = layer.get("config");
+					String name = config.get("name").asText();
+					INDArray kernel = file.readDataSet("kernel", "model_weights", name);
+					INDArray bias = config.get("use_bias").asBoolean() ? file.readDataSet("bias", "model_weights", name) : Nd4j.zeros(kernel.columns());
+					String activation = config.get("activation").asText();
+					list.layer(weights.size(), new DenseLayer.Builder().nIn(kernel.rows()).nOut(kernel.columns())
+							.activation(activation.equals("linear") ? Activation.IDENTITY : Activation.valueOf(activation.toUpperCase())).build());
+					weights.add(new INDArray[] {kernel, bias.reshape(1, kernel.columns())});
+				}
+				MultiLayerNetwork network = new MultiLayerNetwork(list.build());
+				network.init();
+				for(int i = 0; i < weights.size(); i++) {
+					network.getLayer(i).setParam("W", weights.get(i)[0]);
+					network.getLayer(i).setParam("b", weights.get(i)[1]);
+				}
+				return network;
+			} finally {
+				file.close();
+			}
+		}
+	}
+}
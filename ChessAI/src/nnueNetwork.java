@@ -0,0 +1,180 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * nnueNetwork.java
+ * A small efficiently updatable network, scored on the CPU in about the time evaluateBoard takes.
+ * The input is one feature per piece code and square, seen from each side: for black the colors are swapped and the board flipped.
+ * The first layer sums the weights of the features that are on into an int16 accumulator for each side. ChessGame keeps the
+ * accumulators and adds or takes away one feature whenever putPiece or removePiece is called, so a move changes two or three
+ * features instead of all of them. The rest is small: both accumulators, the side to move first, go through a clipped ReLU
+ * into a dense layer with a ReLU and then one output, the score in centipawns for the side to move.
+ * The accumulator updates and the dense layers use the Vector API, so this needs --add-modules jdk.incubator.vector to compile and run.
+ * Nothing else loads this class, so the rest of the engine runs without the module.
+ * File, all big endian: "NNUE", hidden size, dense size, first layer weights (int16, 768 x hidden), first layer biases (int16, hidden),
+ * dense weights (float, dense x 2*hidden), dense biases (float, dense), output weights (float, dense), output bias (float).
+ * "java --add-modules jdk.incubator.vector nnueNetwork <out.nnue>" writes a starting network that scores material like evaluateBoard.
+ * nnueTrainer trains a network like that on scored positions and writes the result in the same format.
+ */
+
+public class nnueNetwork {
+	static final int FEATURES = 12 * 64;
+	static final int CLIP = 4095; //Accumulator values above this count as this much
+	static final int MAGIC = 0x4E4E5545; //"NNUE"
+	static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+	static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+	int hidden;
+	int dense;
+	short[] inputWeights; //hidden weights for each feature, one after another
+	short[] inputBiases;
+	float[] denseWeights; //2*hidden weights for each dense unit, one after another
+	float[] denseBiases;
+	float[] outputWeights;
+	float outputBias;
+
+	nnueNetwork(int hidden, int dense) {
+		this.hidden = hidden;
+		this.dense = dense;
+		inputWeights = new short[FEATURES * hidden];
+		inputBiases = new short[hidden];
+		denseWeights = new float[dense * 2 * hidden];
+		denseBiases = new float[dense];
+		outputWeights = new float[dense];
+	}
+
+	static nnueNetwork load(String path) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+		if(in.remaining() < 12 || in.getInt() != MAGIC) throw new IOException(path + " is not an NNUE network");
+		nnueNetwork n = new nnueNetwork(in.getInt(), in.getInt());
+		if(in.remaining() != n.size() - 12) throw new IOException(path + " is the wrong size for its layers");
+		in.asShortBuffer().get(n.inputWeights);
+		in.position(in.position() + n.inputWeights.length * 2);
+		in.asShortBuffer().get(n.inputBiases);
+		in.position(in.position() + n.inputBiases.length * 2);
+		in.asFloatBuffer().get(n.denseWeights);
+		in.position(in.position() + n.denseWeights.length * 4);
+		in.asFloatBuffer().get(n.denseBiases);
+		in.position(in.position() + n.denseBiases.length * 4);
+		in.asFloatBuffer().get(n.outputWeights);
+		in.position(in.position() + n.outputWeights.length * 4);
+		n.outputBias = in.getFloat();
+		return n;
+	}
+
+	void save(String path) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(hidden);
+			out.writeInt(dense);
+			for(short w : inputWeights) out.writeShort(w);
+			for(short b : inputBiases) out.writeShort(b);
+			for(float w : denseWeights) out.writeFloat(w);
+			for(float b : denseBiases) out.writeFloat(b);
+			for(float w : outputWeights) out.writeFloat(w);
+			out.writeFloat(outputBias);
+		}
+	}
+
+	//Bytes in the file
+	int size() {
+		return 12 + (inputWeights.length + inputBiases.length) * 2 + (denseWeights.length + denseBiases.length + outputWeights.length + 1) * 4;
+	}
+
+	//The feature for the piece code on the square seen from white's side and from black's side
+	static int whiteFeature(int code, int sq) {
+		return (code - 1) * 64 + sq;
+	}
+
+	static int blackFeature(int code, int sq) {
+		return ((code - 1) ^ 1) * 64 + (sq ^ 56);
+	}
+
+	//Both accumulators worked out from nothing, white's first and then black's
+	short[] refresh(int[] squares) {
+		short[] accumulator = new short[2 * hidden];
+		System.arraycopy(inputBiases, 0, accumulator, 0, hidden);
+		System.arraycopy(inputBiases, 0, accumulator, hidden, hidden);
+		for(int sq = 0; sq < 64; sq++) {
+			if(squares[sq] != 0) update(accumulator, squares[sq], sq, true);
+		}
+		return accumulator;
+	}
+
+	//Adds the piece on the square to both accumulators, or takes it away
+	void update(short[] accumulator, int code, int sq, boolean add) {
+		addWeights(accumulator, 0, whiteFeature(code, sq) * hidden, add);
+		addWeights(accumulator, hidden, blackFeature(code, sq) * hidden, add);
+	}
+
+	private void addWeights(short[] accumulator, int side, int weights, boolean add) {
+		int i = 0;
+		for(int end = SHORTS.loopBound(hidden); i < end; i += SHORTS.length()) {
+			ShortVector a = ShortVector.fromArray(SHORTS, accumulator, side + i);
+			ShortVector w = ShortVector.fromArray(SHORTS, inputWeights, weights + i);
+			(add ? a.add(w) : a.sub(w)).intoArray(accumulator, side + i);
+		}
+		for(; i < hidden; i++) accumulator[side + i] += add ? inputWeights[weights + i] : -inputWeights[weights + i];
+	}
+
+	//The score in centipawns for the side to move. input is somewhere to put the first layer's output, 2*hidden long
+	int evaluate(short[] accumulator, boolean whiteToMove, float[] input) {
+		int us = whiteToMove ? 0 : hidden;
+		int them = hidden - us;
+		for(int i = 0; i < hidden; i++) {
+			input[i] = Math.max(0, Math.min(CLIP, accumulator[us + i]));
+			input[hidden + i] = Math.max(0, Math.min(CLIP, accumulator[them + i]));
+		}
+		float score = outputBias;
+		for(int d = 0; d < dense; d++) {
+			float h = denseBiases[d] + dot(denseWeights, d * 2 * hidden, input);
+			if(h > 0) score += h * outputWeights[d];
+		}
+		return Math.round(score);
+	}
+
+	private static float dot(float[] weights, int first, float[] input) {
+		FloatVector sum = FloatVector.zero(FLOATS);
+		int i = 0;
+		for(int end = FLOATS.loopBound(input.length); i < end; i += FLOATS.length()) {
+			sum = FloatVector.fromArray(FLOATS, weights, first + i).fma(FloatVector.fromArray(FLOATS, input, i), sum);
+		}
+		float total = sum.reduceLanes(VectorOperators.ADD);
+		for(; i < input.length; i++) total += weights[first + i] * input[i];
+		return total;
+	}
+
+	//A network to start training from. Hidden unit 0 counts the material of the side it is from in units of 4 centipawns,
+	//the dense layer takes the difference both ways and the output puts it back together, so it scores material like evaluateBoard
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("usage: nnueNetwork <out.nnue>");
+			return;
+		}
+		nnueNetwork n = new nnueNetwork(128, 32);
+		for(int code = 1; code <= 12; code++) {
+			if(!ChessGame.isWhite(code)) continue; //Black pieces are the other side's from white's view, and white's from black's
+			for(int sq = 0; sq < 64; sq++) {
+				n.inputWeights[whiteFeature(code, sq) * n.hidden] = (short)(chessAI.pieceValues[ChessGame.type(code)] * 25);
+			}
+		}
+		n.denseWeights[0] = 1;
+		n.denseWeights[n.hidden] = -1;
+		n.denseWeights[2 * n.hidden] = -1;
+		n.denseWeights[2 * n.hidden + n.hidden] = 1;
+		n.outputWeights[0] = 4;
+		n.outputWeights[1] = -4;
+		n.save(args[0]);
+		System.out.println("Written to " + args[0]);
+	}
+}
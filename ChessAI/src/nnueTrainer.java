@@ -0,0 +1,292 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * nnueTrainer.java
+ * Trains an nnueNetwork on scored positions and writes it out in the format nnueNetwork.load reads.
+ * The positions are a text file with one "FEN;score" a line, the score in centipawns for the side to move, so scores from any engine can be used.
+ * "data" writes a file like that from random games scored by evaluateBoard, which is enough to start a network off close to the hand written evaluation.
+ * The network is trained in floats with the first layer in the same units as the int16 accumulators, so its weights only have to be rounded
+ * when they are written. They are kept within WEIGHT_LIMIT so 32 pieces and the bias can never overflow an accumulator.
+ * The loss is the squared difference of the two scores after a sigmoid, so a few lopsided positions do not swamp the rest.
+ * It uses Adam on batches of BATCH positions and holds back every tenth position to say how well the network does on ones it was not trained on.
+ * "java --add-modules jdk.incubator.vector nnueTrainer data <positions.txt> [games] [seed]"
+ * "java --add-modules jdk.incubator.vector nnueTrainer train <start.nnue> <positions.txt> <out.nnue> [epochs] [seed]", start.nnue can come from nnueNetwork.
+ * There is no trained network in the tree, so the engine only uses NNUE when chessAI.useNnue is given one.
+ */
+
+public class nnueTrainer {
+	static final int WEIGHT_LIMIT = Short.MAX_VALUE / 33;
+	static final double SCALE = 400; //Centipawns the sigmoid is stretched over
+	static final int BATCH = 256;
+	static final int PLIES = 160; //Longest random game for data
+
+	//A position as the network sees it. The features are from the side to move's view first and then the other side's
+	static class sample {
+		short[] us;
+		short[] them;
+		float score;
+		String fen;
+	}
+
+	//Weights in floats with Adam's running averages. Rates are per layer because the first layer works in accumulator units
+	static class layer {
+		float[] w, g, m, v;
+		double rate;
+		float limit;
+
+		layer(int size, double rate, float limit) {
+			w = new float[size];
+			g = new float[size];
+			m = new float[size];
+			v = new float[size];
+			this.rate = rate;
+			this.limit = limit;
+		}
+
+		void step(int t, int n) {
+			double c1 = 1 - Math.pow(0.9, t), c2 = 1 - Math.pow(0.999, t);
+			for(int i = 0; i < w.length; i++) {
+				double grad = g[i] / n;
+				m[i] = (float)(0.9 * m[i] + 0.1 * grad);
+				v[i] = (float)(0.999 * v[i] + 0.001 * grad * grad);
+				w[i] -= rate * (m[i] / c1) / (Math.sqrt(v[i] / c2) + 1e-8);
+				w[i] = Math.max(-limit, Math.min(limit, w[i]));
+				g[i] = 0;
+			}
+		}
+	}
+
+	int hidden, dense;
+	layer inputWeights, inputBiases, denseWeights, denseBiases, outputWeights, outputBias;
+	//Activations of the last forward pass
+	float[] acc, input, h;
+
+	nnueTrainer(nnueNetwork start, Random random) {
+		hidden = start.hidden;
+		dense = start.dense;
+		inputWeights = new layer(start.inputWeights.length, 1, WEIGHT_LIMIT);
+		inputBiases = new layer(hidden, 1, WEIGHT_LIMIT);
+		denseWeights = new layer(start.denseWeights.length, 1e-4, Float.MAX_VALUE);
+		denseBiases = new layer(dense, 1e-2, Float.MAX_VALUE);
+		outputWeights = new layer(dense, 1e-3, Float.MAX_VALUE);
+		outputBias = new layer(1, 1e-1, Float.MAX_VALUE);
+		for(int i = 0; i < start.inputWeights.length; i++) inputWeights.w[i] = start.inputWeights[i];
+		for(int i = 0; i < hidden; i++) inputBiases.w[i] = start.inputBiases[i];
+		System.arraycopy(start.denseWeights, 0, denseWeights.w, 0, start.denseWeights.length);
+		System.arraycopy(start.denseBiases, 0, denseBiases.w, 0, dense);
+		System.arraycopy(start.outputWeights, 0, outputWeights.w, 0, dense);
+		outputBias.w[0] = start.outputBias;
+		//Units that are all zero would stay that way, so they start from small random weights. The output does not change
+		//because a unit only reaches it through an output weight, which is still zero
+		for(int j = 0; j < hidden; j++) {
+			boolean unused = inputBiases.w[j] == 0;
+			for(int f = 0; f < nnueNetwork.FEATURES && unused; f++) unused = inputWeights.w[f * hidden + j] == 0;
+			if(unused) for(int f = 0; f < nnueNetwork.FEATURES; f++) inputWeights.w[f * hidden + j] = random.nextInt(33) - 16;
+		}
+		for(int d = 0; d < dense; d++) {
+			if(outputWeights.w[d] != 0) continue;
+			for(int i = 0; i < 2 * hidden; i++) if(denseWeights.w[d * 2 * hidden + i] == 0) denseWeights.w[d * 2 * hidden + i] = (float)(random.nextGaussian() * 1e-3);
+		}
+		acc = new float[2 * hidden];
+		input = new float[2 * hidden];
+		h = new float[dense];
+	}
+
+	//The score in centipawns for the side to move, the same as nnueNetwork.evaluate gives before the weights are rounded
+	float forward(sample s) {
+		for(int j = 0; j < hidden; j++) {
+			acc[j] = inputBiases.w[j];
+			acc[hidden + j] = inputBiases.w[j];
+		}
+		for(short f : s.us) for(int j = 0; j < hidden; j++) acc[j] += inputWeights.w[f * hidden + j];
+		for(short f : s.them) for(int j = 0; j < hidden; j++) acc[hidden + j] += inputWeights.w[f * hidden + j];
+		for(int i = 0; i < 2 * hidden; i++) input[i] = Math.max(0, Math.min(nnueNetwork.CLIP, acc[i]));
+		float score = outputBias.w[0];
+		for(int d = 0; d < dense; d++) {
+			float sum = denseBiases.w[d];
+			for(int i = 0; i < 2 * hidden; i++) sum += denseWeights.w[d * 2 * hidden + i] * input[i];
+			h[d] = sum;
+			if(sum > 0) score += sum * outputWeights.w[d];
+		}
+		return score;
+	}
+
+	static double sigmoid(double score) {
+		return 1 / (1 + Math.exp(-score / SCALE));
+	}
+
+	//Adds the gradient of the loss for one position, after forward has been run on it
+	void backward(sample s, float score) {
+		double p = sigmoid(score), q = sigmoid(s.score);
+		float dy = (float)(2 * (p - q) * p * (1 - p) / SCALE);
+		float[] dInput = new float[2 * hidden];
+		outputBias.g[0] += dy;
+		for(int d = 0; d < dense; d++) {
+			if(h[d] <= 0) continue;
+			outputWeights.g[d] += dy * h[d];
+			float dh = dy * outputWeights.w[d];
+			denseBiases.g[d] += dh;
+			int row = d * 2 * hidden;
+			for(int i = 0; i < 2 * hidden; i++) {
+				denseWeights.g[row + i] += dh * input[i];
+				dInput[i] += dh * denseWeights.w[row + i];
+			}
+		}
+		for(int i = 0; i < 2 * hidden; i++) if(acc[i] <= 0 || acc[i] >= nnueNetwork.CLIP) dInput[i] = 0;
+		for(int j = 0; j < hidden; j++) inputBiases.g[j] += dInput[j] + dInput[hidden + j];
+		for(short f : s.us) for(int j = 0; j < hidden; j++) inputWeights.g[f * hidden + j] += dInput[j];
+		for(short f : s.them) for(int j = 0; j < hidden; j++) inputWeights.g[f * hidden + j] += dInput[hidden + j];
+	}
+
+	void train(List<sample> samples, int epochs, Random random, List<sample> held) {
+		int t = 0;
+		System.out.printf("start: %.1f centipawns off on the held back positions%n", error(held));
+		for(int epoch = 1; epoch <= epochs; epoch++) {
+			Collections.shuffle(samples, random);
+			for(int first = 0; first < samples.size(); first += BATCH) {
+				int n = Math.min(BATCH, samples.size() - first);
+				for(int i = first; i < first + n; i++) backward(samples.get(i), forward(samples.get(i)));
+				t++;
+				for(layer l : new layer[] {inputWeights, inputBiases, denseWeights, denseBiases, outputWeights, outputBias}) l.step(t, n);
+			}
+			System.out.printf("epoch %d: %.1f centipawns off on the held back positions%n", epoch, error(held));
+		}
+	}
+
+	//Mean difference from the scores in centipawns
+	double error(List<sample> samples) {
+		double total = 0;
+		for(sample s : samples) total += Math.abs(forward(s) - s.score);
+		return total / samples.size();
+	}
+
+	//The network with its first layer rounded back to int16
+	nnueNetwork export() {
+		nnueNetwork n = new nnueNetwork(hidden, dense);
+		for(int i = 0; i < n.inputWeights.length; i++) n.inputWeights[i] = (short)Math.round(inputWeights.w[i]);
+		for(int i = 0; i < hidden; i++) n.inputBiases[i] = (short)Math.round(inputBiases.w[i]);
+		System.arraycopy(denseWeights.w, 0, n.denseWeights, 0, n.denseWeights.length);
+		System.arraycopy(denseBiases.w, 0, n.denseBiases, 0, dense);
+		System.arraycopy(outputWeights.w, 0, n.outputWeights, 0, dense);
+		n.outputBias = outputBias.w[0];
+		return n;
+	}
+
+	static sample sample(ChessGame game, float score) {
+		List<Short> white = new ArrayList<Short>(), black = new ArrayList<Short>();
+		for(int sq = 0; sq < 64; sq++) {
+			int code = game.piece(sq);
+			if(code == 0) continue;
+			white.add((short)nnueNetwork.whiteFeature(code, sq));
+			black.add((short)nnueNetwork.blackFeature(code, sq));
+		}
+		sample s = new sample();
+		s.us = toArray(game.whitesMove() ? white : black);
+		s.them = toArray(game.whitesMove() ? black : white);
+		s.score = score;
+		return s;
+	}
+
+	private static short[] toArray(List<Short> list) {
+		short[] a = new short[list.size()];
+		for(int i = 0; i < a.length; i++) a[i] = list.get(i);
+		return a;
+	}
+
+	//Just the pieces and the side to move, which is all the network looks at
+	static String fen(ChessGame game) {
+		StringBuilder fen = new StringBuilder();
+		for(int row = 7; row >= 0; row--) {
+			int empty = 0;
+			for(int col = 0; col < 8; col++) {
+				int code = game.piece(row * 8 + col);
+				if(code == 0) {
+					empty++;
+					continue;
+				}
+				if(empty > 0) fen.append(empty);
+				empty = 0;
+				char c = " pnbrqk".charAt(ChessGame.type(code));
+				fen.append(ChessGame.isWhite(code) ? Character.toUpperCase(c) : c);
+			}
+			if(empty > 0) fen.append(empty);
+			if(row > 0) fen.append('/');
+		}
+		return fen.append(game.whitesMove() ? " w - - 0 1" : " b - - 0 1").toString();
+	}
+
+	//Positions from random games with evaluateBoard's score for the side to move
+	static void data(String path, int games, long seed) throws IOException {
+		Random random = new Random(seed);
+		chessAI ai = new chessAI(true, 1);
+		int[] list = new int[256];
+		int written = 0;
+		try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path)))) {
+			for(int g = 0; g < games; g++) {
+				ChessGame game = new ChessGame();
+				for(int ply = 0; ply < PLIES; ply++) {
+					int n = game.legalMoves(list);
+					if(n == 0) break;
+					game.makeMove(list[random.nextInt(n)]);
+					if(ply < 8) continue; //The first few moves of every game look too much alike
+					double score = ai.evaluateBoard(game, ply / 2);
+					out.println(fen(game) + ";" + Math.round(game.whitesMove() ? score : -score));
+					written++;
+				}
+			}
+		}
+		System.out.println(written + " positions written to " + path);
+	}
+
+	static List<sample> read(String path) throws IOException {
+		List<sample> samples = new ArrayList<sample>();
+		try(BufferedReader in = Files.newBufferedReader(Paths.get(path))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				int split = line.lastIndexOf(';');
+				if(split < 0) continue;
+				sample s = sample(new ChessGame(line.substring(0, split)), Float.parseFloat(line.substring(split + 1).trim()));
+				s.fen = line.substring(0, split);
+				samples.add(s);
+			}
+		}
+		return samples;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length >= 2 && args[0].equals("data")) {
+			data(args[1], args.length > 2 ? Integer.parseInt(args[2]) : 2000, args.length > 3 ? Long.parseLong(args[3]) : 20240419);
+			return;
+		}
+		if(args.length < 4 || !args[0].equals("train")) {
+			System.out.println("usage: nnueTrainer data <positions.txt> [games] [seed]");
+			System.out.println("       nnueTrainer train <start.nnue> <positions.txt> <out.nnue> [epochs] [seed]");
+			return;
+		}
+		Random random = new Random(args.length > 5 ? Long.parseLong(args[5]) : 20240419);
+		List<sample> all = read(args[2]);
+		List<sample> samples = new ArrayList<sample>(), held = new ArrayList<sample>();
+		for(int i = 0; i < all.size(); i++) (i % 10 == 9 ? held : samples).add(all.get(i));
+		nnueTrainer trainer = new nnueTrainer(nnueNetwork.load(args[1]), random);
+		trainer.train(samples, args.length > 4 ? Integer.parseInt(args[4]) : 10, random, held);
+		nnueNetwork n = trainer.export();
+		n.save(args[3]);
+		//The saved network run the way the search runs it, to show rounding the first layer did not cost anything
+		nnueNetwork saved = nnueNetwork.load(args[3]);
+		double total = 0;
+		for(sample s : held) {
+			ChessGame game = new ChessGame(s.fen);
+			game.useNnue(saved);
+			total += Math.abs(game.nnueScore() - s.score);
+		}
+		System.out.printf("Written to %s, %.1f centipawns off on the held back positions as the search scores them%n", args[3], total / held.size());
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * perftTest.java
+ * Counts every position the move generator reaches to a fixed depth and compares it to the known counts.
+ * If the counts are right the move generator is right, and the time it takes is the speed of the move generator.
+ * With no arguments it runs the whole suite and prints nodes per second for each position.
+ * "divide <depth> <fen>" prints the count under each first move, which is how you find which move is wrong.
+ * Exits with 1 if any count is wrong so it can be used in a build.
+ */
+
+public class perftTest {
+	//Positions with known counts, from the chess programming wiki perft results page
+	static final String[] fens = {
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+			"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+			"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+			"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+	};
+	static final int[] depths = {5, 4, 5, 4, 4, 4};
+	static final long[] counts = {4865609, 4085603, 674624, 422333, 2103487, 3894594};
+
+	static int[][] lists = new int[64][256]; //One move list per ply so counting does not allocate
+
+	public static void main(String[] args) {
+		if(args.length >= 3 && args[0].equals("divide")) {
+			divide(new ChessGame(join(args, 2)), Integer.parseInt(args[1]));
+			return;
+		}
+		boolean passed = true;
+		long totalNodes = 0;
+		long totalTime = 0;
+		for(int i = 0; i < fens.length; i++) {
+			ChessGame game = new ChessGame(fens[i]);
+			long start = System.nanoTime();
+			long nodes = perft(game, depths[i], 0);
+			long time = System.nanoTime() - start;
+			totalNodes += nodes;
+			totalTime += time;
+			boolean ok = nodes == counts[i];
+			passed &= ok;
+			System.out.println((ok ? "ok   " : "FAIL ") + fens[i] + " depth " + depths[i] + ": " + nodes + (ok ? "" : " expected " + counts[i]) + ", " + nodesPerSecond(nodes, time) + " nps");
+		}
+		System.out.println("Total " + totalNodes + " nodes in " + (totalTime / 1000000) + "ms, " + nodesPerSecond(totalNodes, totalTime) + " nps");
+		if(!passed) System.exit(1);
+	}
+
+	//Counts the positions at the depth. The last ply just counts the moves instead of making them
+	static long perft(ChessGame game, int depth, int ply) {
+		int[] moves = lists[ply];
+		int length = game.legalMoves(moves);
+		if(depth == 1) return length;
+		long nodes = 0;
+		for(int i = 0; i < length; i++) {
+			game.makeMove(moves[i]);
+			nodes += perft(game, depth-1, ply+1);
+			game.unmakeMove();
+		}
+		return nodes;
+	}
+
+	static void divide(ChessGame game, int depth) {
+		int[] moves = new int[256];
+		int length = game.legalMoves(moves);
+		long total = 0;
+		for(int i = 0; i < length; i++) {
+			String name = game.moveToString(moves[i]);
+			game.makeMove(moves[i]);
+			long nodes = depth > 1 ? perft(game, depth-1, 0) : 1;
+			game.unmakeMove();
+			total += nodes;
+			System.out.println(name + ": " + nodes);
+		}
+		System.out.println("Moves: " + length + " Nodes: " + total);
+	}
+
+	static long nodesPerSecond(long nodes, long nanos) {
+		return nanos == 0 ? 0 : nodes * 1000000000L / nanos;
+	}
+
+	static String join(String[] args, int start) {
+		String s = args[start];
+		for(int i = start+1; i < args.length; i++) s += " " + args[i];
+		return s;
+	}
+}
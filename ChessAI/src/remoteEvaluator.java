@@ -0,0 +1,129 @@
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/*
+ * remoteEvaluator.java
+ * Scores positions on a model server, for when the network can not run in the same program as the search.
+ * It replaces the old code in chessAI.value that sent every board on its own with HttpClient.send and waited for the answer.
+ * It uses the same batches and cache as neuralEvaluator, and on top of that:
+ * Boards queued by all of the search threads since the last request go out together in one request.
+ * A position that is already on its way to the server is not sent again, the thread that wants it waits for the first answer.
+ * At most MAX_IN_FLIGHT requests are out at once, a thread that wants to send another waits for one to come back.
+ * Requests go out with sendAsync, over HTTP/2 if the server speaks it and HTTP/1.1 if not.
+ * The body is binary. The request is 64 bytes per board, the piece code on each square from a1 to h8,
+ * and the answer is one big endian double per board, white's score in the units of evaluateBoard. evaluationServer answers it.
+ * If the server can not be reached the scores come back as NaN and the search uses evaluateBoard for those positions.
+ */
+
+public class remoteEvaluator extends neuralEvaluator {
+	static final int MAX_IN_FLIGHT = 4;
+
+	HttpClient client;
+	URI uri;
+	Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+	ConcurrentHashMap<Long, CompletableFuture<Double>> pending = new ConcurrentHashMap<>(); //Positions sent or about to be sent that have no answer yet
+	volatile boolean warned;
+
+	//The boards for the next request, filled by every search thread
+	ByteArrayOutputStream outgoing = new ByteArrayOutputStream();
+	List<Long> outgoingKeys = new ArrayList<Long>();
+	List<CompletableFuture<Double>> outgoingAnswers = new ArrayList<CompletableFuture<Double>>();
+
+	remoteEvaluator(String url, int batch) {
+		super(batch);
+		uri = URI.create(url);
+		client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.executor(Executors.newCachedThreadPool(r -> {
+					Thread t = new Thread(r, "remoteEvaluator");
+					t.setDaemon(true);
+					return t;
+				}))
+				.build();
+	}
+
+	//Asks for the boards that no one has asked for yet, sends everything queued so far and waits for the answers
+	@Override
+	void run(float[] boards, long[] keys, int n, double[] scores) {
+		List<CompletableFuture<Double>> answers = new ArrayList<CompletableFuture<Double>>(n);
+		for(int i = 0; i < n; i++) {
+			int first = i * 64;
+			answers.add(pending.computeIfAbsent(keys[i], key -> queue(key, boards, first)));
+		}
+		send();
+		for(int i = 0; i < n; i++) {
+			try {
+				scores[i] = answers.get(i).join();
+			} catch (CompletionException e) {
+				scores[i] = Double.NaN;
+			}
+		}
+	}
+
+	private synchronized CompletableFuture<Double> queue(long key, float[] boards, int first) {
+		for(int sq = 0; sq < 64; sq++) outgoing.write((int)boards[first + sq]);
+		CompletableFuture<Double> answer = new CompletableFuture<Double>();
+		outgoingKeys.add(key);
+		outgoingAnswers.add(answer);
+		return answer;
+	}
+
+	//Sends every queued board in one request. The answers are filled in when it comes back
+	void send() {
+		byte[] body;
+		List<Long> keys;
+		List<CompletableFuture<Double>> answers;
+		synchronized(this) {
+			if(outgoingKeys.isEmpty()) return; //Another thread already sent them
+			body = outgoing.toByteArray();
+			keys = outgoingKeys;
+			answers = outgoingAnswers;
+			outgoing.reset();
+			outgoingKeys = new ArrayList<Long>();
+			outgoingAnswers = new ArrayList<CompletableFuture<Double>>();
+		}
+		inFlight.acquireUninterruptibly();
+		try {
+			HttpRequest request = HttpRequest.newBuilder(uri)
+					.header("Content-Type", "application/octet-stream")
+					.POST(HttpRequest.BodyPublishers.ofByteArray(body))
+					.build();
+			client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+				inFlight.release();
+				ByteBuffer scores = null;
+				if(error == null && response.statusCode() == 200 && response.body().length == keys.size() * 8) scores = ByteBuffer.wrap(response.body());
+				else warn(error != null ? error : "status " + response.statusCode());
+				answer(keys, answers, scores);
+			});
+		} catch (RuntimeException e) { //The request never went out, like one to a url HttpClient does not take. Nothing will come back to free its place
+			inFlight.release();
+			warn(e);
+			answer(keys, answers, null);
+		}
+	}
+
+	private void warn(Object problem) {
+		if(warned) return;
+		warned = true;
+		System.out.println("The model server at " + uri + " did not answer, using evaluateBoard instead: " + problem);
+	}
+
+	//Gives every waiting thread its score, or NaN for all of them when there are no scores
+	private void answer(List<Long> keys, List<CompletableFuture<Double>> answers, ByteBuffer scores) {
+		for(int i = 0; i < keys.size(); i++) {
+			answers.get(i).complete(scores != null ? scores.getDouble(i * 8) : Double.NaN);
+			pending.remove(keys.get(i), answers.get(i));
+		}
+	}
+}
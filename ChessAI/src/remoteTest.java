@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * remoteTest.java
+ * Starts evaluationServer in this program and checks that remoteEvaluator gets the same score from it for every board as evaluateBoard gives here.
+ * The boards come from random games and are sent in batches by several threads at once, like the search threads send them,
+ * so requests share boards, wait on each other's answers and queue up behind MAX_IN_FLIGHT.
+ * Then it sends to a url HttpClient can not send to. Every board has to come back as NaN, and more requests than MAX_IN_FLIGHT
+ * have to get through, which they only do if each failed request gave its place back.
+ * Last it scores positions through one queue while no server is listening, starts a server there and scores them again.
+ * They have to get their real scores the second time, not the NaN from the first.
+ * "java remoteTest [port] [games] [seed]", the port is 5000 like evaluationServer if it is not given, the last part uses the port after it.
+ * Exits with 1 if a score differs or a request fails or never finishes, so it can be used in a build.
+ */
+
+public class remoteTest {
+	static final int THREADS = 4;
+	static final int PLIES = 80;
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 20240419;
+		evaluationServer.main(new String[] {Integer.toString(port)});
+		boolean passed = compare(new remoteEvaluator("http://localhost:" + port + "/predict", 16), games, seed);
+		passed &= unreachable(new remoteEvaluator("ftp://localhost:" + port + "/predict", 16));
+		passed &= outage(port + 1);
+		System.out.println(passed ? "Passed" : "FAILED");
+		System.exit(passed ? 0 : 1); //The server's threads would keep the program running
+	}
+
+	//Every thread plays its own games, queues each position as it reaches it and checks the scores once the batch is back
+	static boolean compare(remoteEvaluator remote, int games, long seed) throws Exception {
+		chessAI heuristic = new chessAI(true, 1);
+		AtomicLong checked = new AtomicLong(), differ = new AtomicLong();
+		List<CompletableFuture<Void>> threads = new ArrayList<CompletableFuture<Void>>();
+		for(int t = 0; t < THREADS; t++) {
+			Random random = new Random(seed + t % 2); //Two threads on the same games, so boards get asked for while another thread has them on the way
+			threads.add(CompletableFuture.runAsync(() -> {
+				neuralEvaluator.queue evals = remote.new queue();
+				int[] list = new int[256];
+				for(int g = 0; g < games; g++) {
+					List<ChessGame> positions = new ArrayList<ChessGame>();
+					ChessGame game = new ChessGame();
+					for(int ply = 0; ply < PLIES; ply++) {
+						int n = game.legalMoves(list);
+						if(n == 0) break;
+						game.makeMove(list[random.nextInt(n)]);
+						positions.add(new ChessGame(game));
+						evals.add(game);
+					}
+					evals.flush();
+					for(ChessGame p : positions) {
+						double expected = heuristic.evaluateBoard(new ChessGame(p.getBoard(), true), 0); //All the server gets is the board
+						double got = evals.score(p);
+						checked.incrementAndGet();
+						if(Double.compare(got, expected) != 0 && differ.getAndIncrement() < 10) {
+							System.out.println("Differs, remote " + got + " evaluateBoard " + expected + "\n" + p);
+						}
+					}
+				}
+			}));
+		}
+		if(!finish(threads)) return false;
+		System.out.println(checked + " boards scored by the server, " + differ + " differ");
+		return differ.get() == 0;
+	}
+
+	static boolean unreachable(remoteEvaluator remote) throws Exception {
+		CompletableFuture<Boolean> nan = CompletableFuture.supplyAsync(() -> {
+			ChessGame game = new ChessGame();
+			int[] list = new int[256];
+			boolean all = true;
+			for(int i = 0; i < remoteEvaluator.MAX_IN_FLIGHT * 4; i++) {
+				if(game.legalMoves(list) == 0) game = new ChessGame();
+				else game.makeMove(list[0]);
+				all &= Double.isNaN(remote.score(game));
+			}
+			return all;
+		});
+		List<CompletableFuture<Void>> wait = new ArrayList<CompletableFuture<Void>>();
+		wait.add(nan.thenAccept(all -> {}));
+		if(!finish(wait)) return false;
+		System.out.println((remoteEvaluator.MAX_IN_FLIGHT * 4) + " requests that could not be sent, " + (nan.get() ? "all" : "not all") + " scored NaN");
+		return nan.get();
+	}
+
+	//The same queue before and after the server at the port comes up, like a search thread that lives through an outage
+	static boolean outage(int port) throws Exception {
+		chessAI heuristic = new chessAI(true, 1);
+		remoteEvaluator remote = new remoteEvaluator("http://localhost:" + port + "/predict", 16);
+		neuralEvaluator.queue evals = remote.new queue();
+		List<ChessGame> positions = new ArrayList<ChessGame>();
+		ChessGame game = new ChessGame();
+		int[] list = new int[256];
+		for(int ply = 0; ply < 20 && game.legalMoves(list) > 0; ply++) {
+			game.makeMove(list[ply % game.legalMoves(list)]);
+			positions.add(new ChessGame(game));
+		}
+		int down = 0, scored = 0;
+		for(ChessGame p : positions) if(Double.isNaN(evals.score(p))) down++;
+		evaluationServer.main(new String[] {Integer.toString(port)});
+		for(ChessGame p : positions) {
+			if(evals.score(p) == heuristic.evaluateBoard(new ChessGame(p.getBoard(), true), 0)) scored++;
+		}
+		System.out.println(positions.size() + " positions, " + down + " NaN while the server was down, " + scored + " scored once it was up");
+		return down == positions.size() && scored == positions.size();
+	}
+
+	private static boolean finish(List<CompletableFuture<Void>> threads) throws Exception {
+		try {
+			CompletableFuture.allOf(threads.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.MINUTES);
+			return true;
+		} catch (TimeoutException e) {
+			System.out.println("A request never finished");
+			return false;
+		} catch (ExecutionException e) {
+			System.out.println("A request failed: " + e.getCause());
+			return false;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/*
+ * transpositionTable.java
+ * Remembers positions the search has already looked at, keyed by the Zobrist key from ChessGame.getKey().
+ * Every entry is packed into one long so the table is just two long arrays and never allocates while searching.
+ * Entry layout:
+ * bits 0-15 best move, bits 16-23 depth, bits 24-25 bound type, bits 26-31 age, bits 32-63 score
+ * Slots are in buckets of two. A new entry goes over the same position if it is there,
+ * otherwise over whichever slot is shallower once older searches are counted against it.
+ * Search threads share one table without locking. Each slot keeps key ^ entry instead of the key,
+ * so if two threads write the same slot at once the halves will not match and the slot just reads as a miss.
+ */
+
+public class transpositionTable {
+	//Bound types. None of them are 0 so an empty slot can never look like an entry
+	static final int EXACT = 1;
+	static final int LOWER = 2; //The score is at least this much, the search failed high
+	static final int UPPER = 3; //The score is at most this much, the search failed low
+
+	long[] keys;
+	long[] data;
+	int mask;
+	int age;
+
+	transpositionTable(int megabytes) {
+		long entries = Long.highestOneBit(Math.max(2, (long)megabytes * 1024 * 1024 / 16)); //16 bytes per entry
+		keys = new long[(int)Math.min(entries, 1 << 30)];
+		data = new long[keys.length];
+		mask = keys.length - 2;
+	}
+
+	//Called once per search so entries from earlier moves get replaced first
+	void newSearch() {
+		age = (age + 1) & 63;
+	}
+
+	void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+	}
+
+	//Returns the packed entry for the position or 0 if it is not in the table
+	long probe(long key) {
+		int i = (int)key & mask;
+		long entry = data[i];
+		if(entry != 0 && (keys[i] ^ entry) == key) return entry;
+		entry = data[i+1];
+		if(entry != 0 && (keys[i+1] ^ entry) == key) return entry;
+		return 0;
+	}
+
+	void store(long key, int move, int depth, int score, int bound) {
+		int i = (int)key & mask;
+		long first = data[i];
+		long second = data[i+1];
+		if((keys[i+1] ^ second) == key) i++;
+		else if((keys[i] ^ first) != key && worth(second) < worth(first)) i++;
+		long entry = (move & 0xFFFFL) | (long)(depth & 0xFF) << 16 | (long)bound << 24 | (long)age << 26 | (long)score << 32;
+		keys[i] = key ^ entry;
+		data[i] = entry;
+	}
+
+	//How much an entry is worth keeping. Deep entries are worth more and every search since it was stored takes some away
+	private int worth(long entry) {
+		if(entry == 0) return Integer.MIN_VALUE;
+		return depth(entry) - 4 * ((age - age(entry)) & 63);
+	}
+
+	static int move(long entry) {
+		return (int)(entry & 0xFFFF);
+	}
+
+	static int depth(long entry) {
+		return (int)(entry >>> 16) & 0xFF;
+	}
+
+	static int bound(long entry) {
+		return (int)(entry >>> 24) & 3;
+	}
+
+	static int age(long entry) {
+		return (int)(entry >>> 26) & 63;
+	}
+
+	static int score(long entry) {
+		return (int)(entry >> 32);
+	}
+}